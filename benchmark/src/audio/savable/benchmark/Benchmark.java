@@ -0,0 +1,353 @@
+package audio.savable.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import audio.savable.ClipCache;
+import audio.savable.Envelope;
+import audio.savable.SavableAudio;
+
+/**
+ * Times every SavableAudio operation on mono and stereo audio of different
+ * lengths and sample formats, and prints the throughput (in MB of PCM per
+ * second) and the number of bytes allocated by each run.
+ *
+ * Edits are only worked out when the audio is read, so each edit is timed
+ * together with reading all of the edited audio through ais into a small
+ * buffer. That way the time is the time of the loops that do the edit, and the
+ * bytes allocated do not include a copy of the output. read only reads the
+ * audio, so it is the time every other operation has on top of its edit, and
+ * readCompressed reads audio that was compressed beforehand. When either
+ * compress operation is run, the memory the audio takes up before and after
+ * compressing is printed as well.
+ *
+ * usage: Benchmark [--seconds 1,10,60,600,1800] [--channels 1,2]
+ * [--formats 8,16,24,32,float] [--ops load,fade,...] [--warmup 3] [--runs 5]
+ * [--fixtures folder] [--csv file]
+ *
+ */
+public class Benchmark {
+	static final String[] OPS = { "load", "loadCached", "save",
+			"append", "appendCrossfade", "mix",
+			"fade", "setVolume", "trim", "addPause",
+			"monoToStereo", "stereoToMono", "swapEndian", "resample",
+			"loadRegion", "applyEnvelope", "read",
+			"compress", "readCompressed",
+			"autoTrim", "splitOnSilence", "normalize" };
+
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private int[] seconds = { 1, 10, 60, 600, 1800 };
+	private int[] channels = { 1, 2 };
+	private List<String> formats = Arrays.asList("16");
+	private List<String> ops = Arrays.asList(OPS);
+	private int warmup = 3;
+	private int runs = 5;
+	private File fixtureFolder = new File(System.getProperty("java.io.tmpdir"), "savable-audio-fixtures");
+	private File csv;
+
+	// the audio that each run edits, and the file that save writes to
+	private SavableAudio input;
+	private SavableAudio other;
+	private SavableAudio compressed;
+	private File inputFile;
+	private File outputFile;
+	private final byte[] buffer = new byte[64 * 1024];
+
+	public static void main(String[] args) throws IOException {
+		Benchmark benchmark = new Benchmark();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--seconds":
+				benchmark.seconds = numbers(value);
+				break;
+			case "--channels":
+				benchmark.channels = numbers(value);
+				break;
+			case "--formats":
+				benchmark.formats = Arrays.asList(value.split(","));
+				break;
+			case "--ops":
+				benchmark.ops = Arrays.asList(value.split(","));
+				break;
+			case "--warmup":
+				benchmark.warmup = Integer.parseInt(value);
+				break;
+			case "--runs":
+				benchmark.runs = Integer.parseInt(value);
+				break;
+			case "--fixtures":
+				benchmark.fixtureFolder = new File(value);
+				break;
+			case "--csv":
+				benchmark.csv = new File(value);
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		benchmark.run();
+	}
+
+	private void run() throws IOException {
+		for (String op : ops) {
+			if (!Arrays.asList(OPS).contains(op)) {
+				System.out.println("Unknown operation: " + op);
+				return;
+			}
+		}
+		for (String format : formats) {
+			if (!Arrays.asList(Fixtures.FORMATS).contains(format)) {
+				System.out.println("Unknown format: " + format);
+				return;
+			}
+		}
+
+		Fixtures fixtures = new Fixtures(fixtureFolder);
+		outputFile = File.createTempFile("savable-audio-benchmark", ".wav");
+		outputFile.deleteOnExit();
+		PrintWriter csvOut = csv == null ? null : new PrintWriter(new FileWriter(csv));
+		if (csvOut != null) {
+			csvOut.println("op,format,channels,seconds,pcmBytes,meanMs,minMs,mbPerSecond,allocatedBytesPerRun");
+		}
+
+		System.out.printf("%-15s %5s %3s %6s %10s %10s %10s %14s%n", "op", "fmt", "ch", "sec", "mean ms", "min ms",
+				"MB/s", "alloc B/run");
+		for (String format : formats) {
+			for (int channelCount : channels) {
+				for (int length : seconds) {
+					inputFile = fixtures.get(length, channelCount, format, 1);
+					input = new SavableAudio(inputFile.getPath());
+					other = new SavableAudio(fixtures.get(length, channelCount, format, 2).getPath());
+					// only 8, 16 and 24 bit audio can be compressed
+					boolean compressible = !format.equals("32") && !format.equals("float");
+					if (compressible && (ops.contains("compress") || ops.contains("readCompressed"))) {
+						compressed = new SavableAudio(input);
+						compressed.compress();
+						System.out.printf("%-15s %5s %3d %6d %10d B raw, %d B compressed (%.1f%%)%n", "memory", format,
+								channelCount, length, input.getMemoryUsage(), compressed.getMemoryUsage(),
+								100.0 * compressed.getMemoryUsage() / input.getMemoryUsage());
+					}
+
+					for (String op : ops) {
+						// converting between mono and stereo only works one way around
+						if (op.equals("monoToStereo") && channelCount != 1 || op.equals("stereoToMono") && channelCount != 2) {
+							continue;
+						}
+						if ((op.equals("compress") || op.equals("readCompressed")) && !compressible) {
+							continue;
+						}
+						Result result = measure(op);
+						System.out.printf("%-15s %5s %3d %6d %10.2f %10.2f %10.1f %14d%n", op, format, channelCount,
+								length, result.meanMs(), result.minMs(), result.mbPerSecond(), result.allocatedPerRun());
+						if (csvOut != null) {
+							csvOut.printf("%s,%s,%d,%d,%d,%.3f,%.3f,%.1f,%d%n", op, format, channelCount, length,
+									result.bytes, result.meanMs(), result.minMs(), result.mbPerSecond(),
+									result.allocatedPerRun());
+						}
+					}
+					input = null;
+					other = null;
+					compressed = null;
+				}
+			}
+		}
+		if (csvOut != null) {
+			csvOut.close();
+		}
+	}
+
+	// runs an operation a few times to warm up, then times it
+	private Result measure(String op) throws IOException {
+		for (int i = 0; i < warmup; i++) {
+			runOnce(op);
+		}
+		Result result = new Result();
+		for (int i = 0; i < runs; i++) {
+			long allocated = allocated();
+			long start = System.nanoTime();
+			result.bytes = runOnce(op);
+			long time = System.nanoTime() - start;
+			result.allocated += allocated() - allocated;
+			result.total += time;
+			result.min = Math.min(result.min, time);
+			result.runs++;
+		}
+		return result;
+	}
+
+	// runs an operation once and returns the number of bytes of PCM it made
+	private long runOnce(String op) throws IOException {
+		SavableAudio audio = new SavableAudio(input);
+		switch (op) {
+		case "load": {
+			// the file is read and decoded every time, instead of being found in the clip cache
+			long budget = ClipCache.getBudget();
+			ClipCache.setBudget(0);
+			try {
+				audio.load(inputFile.getPath());
+			} finally {
+				ClipCache.setBudget(budget);
+			}
+			return audio.ais.getFrameLength() * audio.bytesPerFrame;
+		}
+		case "loadCached":
+			// files smaller than the cache are found in it after the first run
+			audio.load(inputFile.getPath());
+			return audio.ais.getFrameLength() * audio.bytesPerFrame;
+		case "save":
+			audio.save(outputFile.getPath());
+			return audio.ais.getFrameLength() * audio.bytesPerFrame;
+		case "append":
+			audio.append(other);
+			break;
+		case "appendCrossfade":
+			audio.appendCrossfade(other, other.getLength() / 10, Envelope.EQUAL_POWER);
+			break;
+		case "mix":
+			audio.mix(other);
+			break;
+		case "fade":
+			audio.fade(audio.getLength() / 4, audio.getLength() / 4);
+			break;
+		case "setVolume":
+			audio.setVolume(70);
+			break;
+		case "trim":
+			audio.trim(audio.getLength() / 10, audio.getLength() / 10);
+			break;
+		case "addPause":
+			audio.addPause(0.5, 0.5);
+			break;
+		case "monoToStereo":
+			audio.monoToStereo();
+			break;
+		case "stereoToMono":
+			audio.stereoToMono();
+			break;
+		case "swapEndian":
+			audio.swapEndian();
+			break;
+		case "resample":
+			audio.resample(48000);
+			break;
+		case "applyEnvelope":
+			// ducks a tenth of the audio in ten places
+			Envelope envelope = new Envelope();
+			for (int i = 0; i < 10; i++) {
+				double start = audio.getLength() * i / 10;
+				envelope.duck(start, start + audio.getLength() / 100, 30, audio.getLength() / 200);
+			}
+			audio.applyEnvelope(envelope);
+			break;
+		case "read":
+			break;
+		case "compress":
+			audio.compress();
+			break;
+		case "readCompressed":
+			audio = new SavableAudio(compressed);
+			break;
+		case "autoTrim":
+			audio.autoTrim(-50, 0.1);
+			break;
+		case "splitOnSilence":
+			// the parts are read instead of the whole audio
+			long total = 0;
+			for (SavableAudio part : audio.splitOnSilence(-50, 0.5)) {
+				total += drain(part.ais);
+			}
+			return total;
+		case "normalize":
+			audio.normalize(-14, -1);
+			break;
+		case "loadRegion": {
+			// a tenth of the file, from the middle, read from the file instead of the clip cache
+			long budget = ClipCache.getBudget();
+			ClipCache.setBudget(0);
+			try {
+				audio.load(inputFile.getPath(), audio.getLength() / 2, audio.getLength() * 0.6);
+			} finally {
+				ClipCache.setBudget(budget);
+			}
+			break;
+		}
+		}
+		return drain(audio.ais);
+	}
+
+	// reads all of a stream into the same small buffer
+	private long drain(InputStream stream) throws IOException {
+		long total = 0;
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	private static long allocated() {
+		return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// the allocation counter is only on some java virtual machines
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			if (threads.isThreadAllocatedMemorySupported()) {
+				threads.setThreadAllocatedMemoryEnabled(true);
+				return threads;
+			}
+		} catch (ClassCastException | NoClassDefFoundError e) {
+			// fall through and report no allocations
+		}
+		System.out.println("Allocation counting is not supported on this java virtual machine");
+		return null;
+	}
+
+	private static int[] numbers(String list) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (String value : list.split(",")) {
+			values.add(Integer.parseInt(value.trim()));
+		}
+		int[] numbers = new int[values.size()];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = values.get(i);
+		}
+		return numbers;
+	}
+
+	private static class Result {
+		long bytes;
+		long total;
+		long min = Long.MAX_VALUE;
+		long allocated;
+		int runs;
+
+		double meanMs() {
+			return total / 1e6 / runs;
+		}
+
+		double minMs() {
+			return min / 1e6;
+		}
+
+		double mbPerSecond() {
+			return bytes / 1e6 / (total / 1e9 / runs);
+		}
+
+		long allocatedPerRun() {
+			return allocated / runs;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package audio.savable.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Makes the .wav files that the benchmarks are run on, in 8, 16, 24 or 32 bit
+ * PCM or 32 bit float. The samples are a tone with some noise on top, made
+ * from a fixed seed, so the same file is made every time. Files that already
+ * exist with the right size are reused.
+ *
+ */
+class Fixtures {
+	static final int SAMPLE_RATE = 44100;
+	static final String[] FORMATS = { "8", "16", "24", "32", "float" };
+	private static final int HEADER_BYTES = 44;
+
+	private final File folder;
+
+	Fixtures(File folder) {
+		this.folder = folder;
+		folder.mkdirs();
+	}
+
+	/**
+	 * returns a fixture with the given length, channels and format, making it
+	 * if needed
+	 *
+	 * @param seconds
+	 * @param channels
+	 * @param format   one of FORMATS
+	 * @param seed
+	 * @return File
+	 * @throws IOException
+	 */
+	File get(int seconds, int channels, String format, long seed) throws IOException {
+		boolean floats = format.equals("float");
+		int sampleBytes = floats ? 4 : Integer.parseInt(format) / 8;
+		long frames = (long) seconds * SAMPLE_RATE;
+		long dataBytes = frames * channels * sampleBytes;
+		String name = format.equals("16") ? "" : "-" + format;
+		File file = new File(folder, String.format("fixture-%ds-%dch%s-%d.wav", seconds, channels, name, seed));
+		if (file.length() == HEADER_BYTES + dataBytes) {
+			return file;
+		}
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			writeHeader(out, channels, sampleBytes, floats, dataBytes);
+
+			// a slowly rising tone in each ear, with noise from a xorshift generator
+			long state = seed * 0x9E3779B97F4A7C15L + 1;
+			double phase = 0;
+			for (long frame = 0; frame < frames; frame++) {
+				phase += 2 * Math.PI * (220 + (frame % (SAMPLE_RATE * 10)) / 100.0) / SAMPLE_RATE;
+				for (int channel = 0; channel < channels; channel++) {
+					state ^= state << 13;
+					state ^= state >>> 7;
+					state ^= state << 17;
+					double noise = (state >>> 40) / (double) (1 << 24) - 0.5;
+					double sample = Math.sin(phase + channel) * 12000 + noise * 4000;
+					writeSample(out, sample, sampleBytes, floats);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	// writes a sample given on the 16 bit scale in the format of the fixture
+	private static void writeSample(OutputStream out, double sample, int sampleBytes, boolean floats)
+			throws IOException {
+		if (floats) {
+			writeInt(out, Float.floatToIntBits((float) (sample / 32768)));
+		} else if (sampleBytes == 1) {
+			out.write((int) (sample / 256) + 128);
+		} else {
+			int value = (int) (sample * (1L << (8 * sampleBytes - 16)));
+			for (int i = 0; i < sampleBytes; i++) {
+				out.write(value >> (8 * i));
+			}
+		}
+	}
+
+	private static void writeHeader(OutputStream out, int channels, int sampleBytes, boolean floats, long dataBytes)
+			throws IOException {
+		int blockAlign = channels * sampleBytes;
+		out.write(new byte[] { 'R', 'I', 'F', 'F' });
+		writeInt(out, (int) Math.min(0xFFFFFFFFL, 36 + dataBytes));
+		out.write(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+		writeInt(out, 16);
+		writeShort(out, floats ? 3 : 1);
+		writeShort(out, channels);
+		writeInt(out, SAMPLE_RATE);
+		writeInt(out, SAMPLE_RATE * blockAlign);
+		writeShort(out, blockAlign);
+		writeShort(out, sampleBytes * 8);
+		out.write(new byte[] { 'd', 'a', 't', 'a' });
+		writeInt(out, (int) dataBytes);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		writeShort(out, value);
+		writeShort(out, value >> 16);
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value);
+		out.write(value >> 8);
+	}
+}
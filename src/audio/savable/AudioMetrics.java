@@ -0,0 +1,244 @@
+package audio.savable;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps count of the SavableAudio operations that are made, how long they take
+ * and how much they allocate. Metrics are off to begin with, and while they
+ * are off each operation only checks a single flag.
+ *
+ */
+public class AudioMetrics {
+	static volatile boolean enabled = false;
+
+	private static final Map<String, Stats> STATS = new ConcurrentHashMap<String, Stats>();
+	private static final List<OperationListener> LISTENERS = new CopyOnWriteArrayList<OperationListener>();
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private AudioMetrics() {
+	}
+
+	/**
+	 * Turns metrics on or off for every SavableAudio
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		AudioMetrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Adds a listener that is told about each operation while metrics are on
+	 *
+	 * @param listener
+	 */
+	public static void addListener(OperationListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	public static void removeListener(OperationListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * returns the names of the operations that have been counted
+	 *
+	 * @return names
+	 */
+	public static List<String> getNames() {
+		List<String> names = new ArrayList<String>(STATS.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * returns the number of times an operation was made
+	 *
+	 * @param name
+	 * @return long
+	 */
+	public static long getCount(String name) {
+		Stats stats = STATS.get(name);
+		return stats == null ? 0 : stats.latency.getCount();
+	}
+
+	/**
+	 * returns the number of times an operation reported a problem
+	 *
+	 * @param name
+	 * @return long
+	 */
+	public static long getFailures(String name) {
+		Stats stats = STATS.get(name);
+		return stats == null ? 0 : stats.failures.get();
+	}
+
+	/**
+	 * returns the total number of frames an operation has handled
+	 *
+	 * @param name
+	 * @return long
+	 */
+	public static long getFrames(String name) {
+		Stats stats = STATS.get(name);
+		return stats == null ? 0 : stats.frames.get();
+	}
+
+	/**
+	 * returns the total number of bytes an operation has allocated
+	 *
+	 * @param name
+	 * @return long
+	 */
+	public static long getAllocatedBytes(String name) {
+		Stats stats = STATS.get(name);
+		return stats == null ? 0 : stats.allocated.get();
+	}
+
+	/**
+	 * returns how long an operation has taken, or null if it was never made
+	 *
+	 * @param name
+	 * @return LatencyHistogram
+	 */
+	public static LatencyHistogram getLatency(String name) {
+		Stats stats = STATS.get(name);
+		return stats == null ? null : stats.latency;
+	}
+
+	/**
+	 * Forgets everything that has been counted so far
+	 */
+	public static void reset() {
+		for (Stats stats : STATS.values()) {
+			stats.reset();
+		}
+	}
+
+	/**
+	 * returns a table of everything that has been counted, one operation per
+	 * line
+	 *
+	 * @return String
+	 */
+	public static String dump() {
+		StringBuilder table = new StringBuilder(String.format("%-13s %8s %8s %10s %10s %10s %10s %14s %14s%n", "operation",
+				"count", "failed", "mean ms", "p50 ms", "p99 ms", "max ms", "frames", "alloc bytes"));
+		for (String name : getNames()) {
+			Stats stats = STATS.get(name);
+			LatencyHistogram latency = stats.latency;
+			table.append(String.format("%-13s %8d %8d %10.3f %10.3f %10.3f %10.3f %14d %14d%n", name, latency.getCount(),
+					stats.failures.get(), latency.getMeanMillis(), latency.getPercentileMillis(50),
+					latency.getPercentileMillis(99), latency.getMaxMillis(), stats.frames.get(), stats.allocated.get()));
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Starts timing an operation, or returns null if metrics are off
+	 *
+	 * @param name
+	 * @param errors the number of problems reported before the operation
+	 * @return Timer
+	 */
+	static Timer begin(String name, int errors) {
+		return enabled ? new Timer(name, errors) : null;
+	}
+
+	/**
+	 * Finishes timing an operation and tells the listeners about it
+	 *
+	 * @param timer
+	 * @param node the audio after the operation
+	 * @param errors the number of problems reported after the operation
+	 */
+	static void end(Timer timer, AudioNode node, int errors) {
+		if (timer == null) {
+			return;
+		}
+		long nanos = System.nanoTime() - timer.start;
+		long allocated = timer.allocated < 0 ? -1 : allocated() - timer.allocated;
+		OperationEvent event = new OperationEvent(timer.name, nanos, node == null ? 0 : node.frames, allocated,
+				node == null ? null : node.format, errors != timer.errors);
+
+		Stats stats = STATS.get(event.name);
+		if (stats == null) {
+			STATS.putIfAbsent(event.name, new Stats());
+			stats = STATS.get(event.name);
+		}
+		stats.record(event);
+		for (OperationListener listener : LISTENERS) {
+			listener.operationFinished(event);
+		}
+	}
+
+	// the bytes allocated by this thread so far, or -1 if they can not be counted
+	private static long allocated() {
+		return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads;
+			}
+		} catch (ClassCastException | NoClassDefFoundError e) {
+			// not every java virtual machine can count allocations
+		}
+		return null;
+	}
+
+	/**
+	 * The start of an operation that is being timed
+	 *
+	 */
+	static final class Timer {
+		final String name;
+		final int errors;
+		final long allocated = allocated();
+		final long start = System.nanoTime();
+
+		Timer(String name, int errors) {
+			this.name = name;
+			this.errors = errors;
+		}
+	}
+
+	private static final class Stats {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong frames = new AtomicLong();
+		final AtomicLong allocated = new AtomicLong();
+
+		void record(OperationEvent event) {
+			latency.record(event.nanos);
+			frames.addAndGet(event.frames);
+			if (event.allocatedBytes > 0) {
+				allocated.addAndGet(event.allocatedBytes);
+			}
+			if (event.failed) {
+				failures.incrementAndGet();
+			}
+		}
+
+		void reset() {
+			latency.reset();
+			failures.set(0);
+			frames.set(0);
+			allocated.set(0);
+		}
+	}
+}
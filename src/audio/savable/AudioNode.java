@@ -0,0 +1,91 @@
+package audio.savable;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * One step of an edit graph. Every edit made to a SavableAudio is recorded as
+ * a node that reads from the nodes before it, and no samples are worked out
+ * until the audio is saved or read. When that happens all the edits are done
+ * together, one chunk of frames at a time.
+ *
+ * Nodes are never changed after they are made, so they can be shared between
+ * any number of SavableAudio classes.
+ *
+ */
+abstract class AudioNode {
+	final AudioFormat format;
+	final int channels;
+	final long frames;
+
+	// the waveform index of this node, worked out the first time it is needed
+	private volatile WaveformIndex index;
+
+	AudioNode(AudioFormat format, long frames) {
+		this.format = format;
+		this.channels = format.getChannels();
+		this.frames = frames;
+	}
+
+	/**
+	 * Reads a number of frames, starting at the given frame, into the
+	 * destination array. The samples are interleaved and scaled so that full
+	 * volume is between -1 and 1.
+	 *
+	 * @param ctx    holds the temporary arrays used while reading
+	 * @param frame  the first frame to read
+	 * @param dst    the array to read the samples into
+	 * @param offset where in the array to put the first sample
+	 * @param count  the number of frames to read
+	 */
+	abstract void read(RenderContext ctx, long frame, float[] dst, int offset, int count);
+
+	/**
+	 * Adds the smallest sample, the biggest sample and the sum of the squares
+	 * of the samples of a range of frames into a summary, multiplied by a gain.
+	 * The ends of the range can be off by up to the tolerance, which lets big
+	 * ranges be worked out from a few blocks of a waveform index.
+	 *
+	 * Nodes that only move, join or scale the samples of other nodes work this
+	 * out from those nodes, so editing audio does not mean reading it all
+	 * again. Other nodes read themselves once to make an index of their own.
+	 *
+	 * @param ctx
+	 * @param from      the first frame
+	 * @param to        the frame after the last frame
+	 * @param tolerance the number of frames the ends can be moved by
+	 * @param gain
+	 * @param into
+	 */
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		index().summarize(this, ctx, from, to, tolerance, gain, into);
+	}
+
+	/**
+	 * returns the waveform index of this node, working it out the first time
+	 *
+	 * @return WaveformIndex
+	 */
+	WaveformIndex index() {
+		WaveformIndex result = index;
+		if (result == null) {
+			synchronized (this) {
+				if (index == null) {
+					index = WaveformIndex.build(this);
+				}
+				result = index;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Makes an Audio Input Stream that works out the samples of this node as
+	 * the stream is read.
+	 *
+	 * @return AudioInputStream
+	 */
+	AudioInputStream stream() {
+		return new AudioInputStream(new RenderStream(this), format, frames);
+	}
+}
@@ -0,0 +1,123 @@
+package audio.savable;
+
+/**
+ * Reads the audio of a SavableAudio a few frames at a time, for playing it
+ * while a sketch is running. Each read only works out the frames that were
+ * asked for, so a read takes about as long as the frames it returns, however
+ * long the audio is and however many edits have been made to it.
+ *
+ * The audio can be edited while it is being read. The next read picks up the
+ * edits and carries on from the same frame. A reader makes no new arrays once
+ * it has read the biggest number of frames it is asked for, so it can be used
+ * from an audio callback. A reader must only be used by one thread at a time.
+ *
+ */
+public class AudioReader {
+	private final SavableAudio audio;
+	private final RenderContext ctx = new RenderContext();
+	private float[] samples = new float[0];
+	private long frame = 0;
+
+	/**
+	 * Makes a reader that starts at the beginning of the audio
+	 *
+	 * @param audio
+	 */
+	public AudioReader(SavableAudio audio) {
+		this.audio = audio;
+	}
+
+	/**
+	 * Reads the next frames into the buffer as interleaved samples, where full
+	 * volume is between -1 and 1. No more frames are read than fit into the
+	 * buffer.
+	 *
+	 * @param buffer
+	 * @param frames
+	 * @return int the number of frames read, which is 0 once the end of the
+	 *         audio is reached
+	 */
+	public int read(float[] buffer, int frames) {
+		// the edits are picked up again on every read, in case they have changed
+		AudioNode node = audio.node();
+		if (node == null) {
+			return 0;
+		}
+
+		int count = (int) Math.max(0, Math.min(Math.min(frames, buffer.length / node.channels), node.frames - frame));
+		if (count > 0) {
+			node.read(ctx, frame, buffer, 0, count);
+			frame += count;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the next frames into the buffer as bytes in the format of the
+	 * audio. No more frames are read than fit into the buffer.
+	 *
+	 * @param buffer
+	 * @param frames
+	 * @return int the number of frames read, which is 0 once the end of the
+	 *         audio is reached
+	 */
+	public int read(byte[] buffer, int frames) {
+		AudioNode node = audio.node();
+		if (node == null) {
+			return 0;
+		}
+
+		int count = (int) Math.max(0,
+				Math.min(Math.min(frames, buffer.length / node.format.getFrameSize()), node.frames - frame));
+		if (count > 0) {
+			// the samples are worked out as floats first, then encoded
+			int length = count * node.channels;
+			if (samples.length < length) {
+				samples = new float[length];
+			}
+			node.read(ctx, frame, samples, 0, count);
+			PcmCodec.forFormat(node.format).encode(samples, 0, buffer, 0, length);
+			frame += count;
+		}
+		return count;
+	}
+
+	/**
+	 * returns the frame the next read starts at
+	 *
+	 * @return long
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Moves to another frame, so the next read starts from there
+	 *
+	 * @param frame
+	 * @throws IllegalArgumentException if the frame is negative
+	 */
+	public void setFrame(long frame) {
+		if (frame < 0) {
+			throw new IllegalArgumentException("Invalid frame: cannot be a negative number");
+		}
+		this.frame = frame;
+	}
+
+	/**
+	 * Goes back to the beginning of the audio
+	 */
+	public void rewind() {
+		frame = 0;
+	}
+
+	/**
+	 * returns true once every frame of the audio has been read
+	 *
+	 * @return boolean
+	 */
+	public boolean isFinished() {
+		AudioNode node = audio.node();
+		return node == null || frame >= node.frames;
+	}
+}
@@ -0,0 +1,344 @@
+package audio.savable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loads, edits and saves a whole list of audio files at the same time. Each
+ * file is worked on by its own thread, and files only start loading once
+ * there is room for them in the memory budget, so a folder of thousands of
+ * files can be processed without running out of memory.
+ *
+ * It can also be run from the command line:
+ *
+ * java -cp SavableAudio.jar audio.savable.BatchProcessor outputFolder
+ * "setVolume 80; fade 1 2; addPause 0.5 0.5" input1.wav input2.wav ...
+ *
+ */
+public class BatchProcessor {
+	// the memory budget is counted in kilobytes so it fits into a semaphore
+	private static final int PERMIT_BYTES = 1024;
+
+	private final int threads;
+	private final long memoryBudget;
+
+	/**
+	 * The edits to make to each file. The same recipe is used by many threads
+	 * at once, so it must not change anything outside of the audio it is given.
+	 *
+	 */
+	public interface Recipe {
+		void apply(SavableAudio audio);
+	}
+
+	/**
+	 * a Constructor that uses a thread for each core and half of the memory
+	 * that java is allowed to use
+	 */
+	public BatchProcessor() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 2);
+	}
+
+	/**
+	 * a Constructor that sets how many files are worked on at once, and how many
+	 * bytes of decoded audio can be held in memory at once. A file that is bigger
+	 * than the whole budget is still processed, but only on its own.
+	 *
+	 * @param threads
+	 * @param memoryBudget
+	 */
+	public BatchProcessor(int threads, long memoryBudget) {
+		this.threads = Math.max(1, threads);
+		this.memoryBudget = Math.max(PERMIT_BYTES, memoryBudget);
+	}
+
+	/**
+	 * Loads each file, makes the edits in the recipe, and saves it into the
+	 * output folder under the same name. Problems with one file do not stop the
+	 * others. Returns what happened to each file, in the same order as the
+	 * files were given. Files with the same name (from different folders)
+	 * would be saved over each other, so none of them are processed and they
+	 * all fail instead.
+	 *
+	 * @param filePaths
+	 * @param outputFolder
+	 * @param recipe
+	 * @return results
+	 */
+	public List<BatchResult> process(List<String> filePaths, String outputFolder, final Recipe recipe) {
+		final Semaphore memory = new Semaphore(permits(memoryBudget));
+		// count the files that would be saved to each output file
+		Map<String, Integer> outputs = new HashMap<String, Integer>();
+		for (String input : filePaths) {
+			String output = outputPath(outputFolder, input);
+			Integer count = outputs.get(output);
+			outputs.put(output, count == null ? 1 : count + 1);
+		}
+
+		List<Callable<BatchResult>> jobs = new ArrayList<Callable<BatchResult>>();
+		for (final String input : filePaths) {
+			final String output = new File(outputFolder, new File(input).getName()).getPath();
+			if (outputs.get(outputPath(outputFolder, input)) > 1) {
+				jobs.add(new Callable<BatchResult>() {
+					@Override
+					public BatchResult call() {
+						return new BatchResult(input, null,
+								"Another input file has the same name, so both would be saved to " + output, 0, 0);
+					}
+				});
+				continue;
+			}
+			jobs.add(new Callable<BatchResult>() {
+				@Override
+				public BatchResult call() {
+					return run(input, output, recipe, memory);
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, jobs.size())));
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		try {
+			List<Future<BatchResult>> futures = executor.invokeAll(jobs);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					// something like running out of memory, which the job could not catch
+					results.add(failed(filePaths.get(i), e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			// give up on the files that were not finished
+			Thread.currentThread().interrupt();
+			for (int i = results.size(); i < filePaths.size(); i++) {
+				results.add(failed(filePaths.get(i), e));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	// loads, edits and saves one file once there is memory for it
+	private BatchResult run(String input, String output, Recipe recipe, Semaphore memory) {
+		int permits = Math.min(permits(new File(input).length()), permits(memoryBudget));
+		long waitStart = System.nanoTime();
+		memory.acquireUninterruptibly(permits);
+		long start = System.nanoTime();
+		String error;
+		// closing the audio frees its samples as soon as it is saved, so the memory it
+		// held is free again when the next file is let in
+		try (SavableAudio audio = new SavableAudio()) {
+			audio.setQuiet(true);
+			audio.load(input);
+			if (audio.getError() == null) {
+				recipe.apply(audio);
+			}
+			if (audio.getError() == null) {
+				audio.save(output);
+			}
+			error = audio.getError();
+		} catch (RuntimeException e) {
+			error = e.toString();
+		} finally {
+			memory.release(permits);
+		}
+		long end = System.nanoTime();
+		return new BatchResult(input, output, error, end - start, start - waitStart);
+	}
+
+	// the full path of the file an input is saved to, the same for every way of writing it
+	private static String outputPath(String outputFolder, String input) {
+		return new File(outputFolder, new File(input).getName()).getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	private static BatchResult failed(String input, Throwable cause) {
+		return new BatchResult(input, null, String.valueOf(cause), 0, 0);
+	}
+
+	// the number of permits needed for a number of bytes, rounded up
+	private static int permits(long bytes) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+	}
+
+	/**
+	 * Makes a recipe out of edits written as text, separated by semicolons. Each
+	 * edit is the name of a method followed by its inputs, for example "setVolume
+	 * 80; fade 1 2; addPause front 0.5; append outro.wav; stereoToMono".
+	 *
+	 * @param steps
+	 * @return Recipe
+	 * @throws IllegalArgumentException if an edit is not understood
+	 */
+	public static Recipe parse(String steps) {
+		final List<String[]> edits = new ArrayList<String[]>();
+		for (String step : steps.split(";")) {
+			String[] words = step.trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			checkStep(words);
+			edits.add(words);
+		}
+		return new Recipe() {
+			@Override
+			public void apply(SavableAudio audio) {
+				for (String[] words : edits) {
+					applyStep(audio, words);
+				}
+			}
+		};
+	}
+
+	// makes sure an edit has a known name and the right number of inputs
+	private static void checkStep(String[] words) {
+		int inputs = words.length - 1;
+		switch (words[0]) {
+		case "setVolume":
+		case "append":
+		case "mix":
+			if (inputs == 1) {
+				return;
+			}
+			break;
+		case "fade":
+		case "addPause":
+		case "trim":
+		case "monoToStereo":
+			if (inputs == 2) {
+				return;
+			}
+			if (inputs == 0 && words[0].equals("monoToStereo")) {
+				return;
+			}
+			break;
+		case "normalize":
+			if (inputs == 1 || inputs == 2) {
+				return;
+			}
+			break;
+		case "stereoToMono":
+		case "swapEndian":
+			if (inputs == 0) {
+				return;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown edit: " + words[0]);
+		}
+		throw new IllegalArgumentException("Wrong number of inputs for edit: " + String.join(" ", words));
+	}
+
+	private static void applyStep(SavableAudio audio, String[] words) {
+		switch (words[0]) {
+		case "setVolume":
+			audio.setVolume(Double.parseDouble(words[1]));
+			break;
+		case "append":
+			audio.append(words[1]);
+			break;
+		case "mix":
+			audio.mix(words[1]);
+			break;
+		case "fade":
+			if (isNumber(words[1])) {
+				audio.fade(Double.parseDouble(words[1]), Double.parseDouble(words[2]));
+			} else {
+				audio.fade(words[1], Double.parseDouble(words[2]));
+			}
+			break;
+		case "addPause":
+			if (isNumber(words[1])) {
+				audio.addPause(Double.parseDouble(words[1]), Double.parseDouble(words[2]));
+			} else {
+				audio.addPause(words[1], Double.parseDouble(words[2]));
+			}
+			break;
+		case "trim":
+			if (isNumber(words[1])) {
+				audio.trim(Double.parseDouble(words[1]), Double.parseDouble(words[2]));
+			} else {
+				audio.trim(words[1], Double.parseDouble(words[2]));
+			}
+			break;
+		case "monoToStereo":
+			if (words.length == 1) {
+				audio.monoToStereo();
+			} else {
+				audio.monoToStereo(Boolean.parseBoolean(words[1]), Boolean.parseBoolean(words[2]));
+			}
+			break;
+		case "normalize":
+			if (words.length == 2) {
+				audio.normalize(Double.parseDouble(words[1]));
+			} else {
+				audio.normalize(Double.parseDouble(words[1]), Double.parseDouble(words[2]));
+			}
+			break;
+		case "stereoToMono":
+			audio.stereoToMono();
+			break;
+		case "swapEndian":
+			audio.swapEndian();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown edit: " + words[0]);
+		}
+	}
+
+	private static boolean isNumber(String word) {
+		try {
+			Double.parseDouble(word);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs a batch from the command line: the output folder, the recipe, then
+	 * the files to edit.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("usage: BatchProcessor outputFolder \"edit; edit; ...\" file1.wav file2.wav ...");
+			System.exit(2);
+		}
+
+		Recipe recipe;
+		try {
+			recipe = parse(args[1]);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		new File(args[0]).mkdirs();
+
+		long start = System.nanoTime();
+		List<BatchResult> results = new BatchProcessor().process(Arrays.asList(args).subList(2, args.length),
+				args[0], recipe);
+		int failures = 0;
+		for (BatchResult result : results) {
+			System.out.println(result);
+			if (!result.succeeded()) {
+				failures++;
+			}
+		}
+		System.out.printf("%d files, %d failed, %.1f s%n", results.size(), failures, (System.nanoTime() - start) / 1e9);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
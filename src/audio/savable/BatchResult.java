@@ -0,0 +1,54 @@
+package audio.savable;
+
+/**
+ * What happened to one file in a batch: where it was saved, how long it took,
+ * and what went wrong if it did not work.
+ *
+ */
+public class BatchResult {
+	public final String input;
+	public final String output;
+
+	// the problem with the file, or null if it was saved
+	public final String error;
+
+	// the time the file took, not counting the time spent waiting for memory
+	public final long nanos;
+
+	// the time spent waiting for memory before the file could be loaded
+	public final long waitNanos;
+
+	BatchResult(String input, String output, String error, long nanos, long waitNanos) {
+		this.input = input;
+		this.output = output;
+		this.error = error;
+		this.nanos = nanos;
+		this.waitNanos = waitNanos;
+	}
+
+	/**
+	 * returns true if the file was edited and saved
+	 *
+	 * @return boolean
+	 */
+	public boolean succeeded() {
+		return error == null;
+	}
+
+	/**
+	 * returns the time the file took in milliseconds
+	 *
+	 * @return double
+	 */
+	public double getMillis() {
+		return nanos / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		if (succeeded()) {
+			return String.format("ok     %9.1f ms  %s -> %s", getMillis(), input, output);
+		}
+		return String.format("FAILED %9.1f ms  %s: %s", getMillis(), input, error);
+	}
+}
@@ -0,0 +1,26 @@
+package audio.savable;
+
+/**
+ * Reads the samples of a loaded SampleBuffer. This is where every edit graph
+ * starts.
+ *
+ */
+class BufferNode extends AudioNode {
+	final SampleBuffer buffer;
+
+	BufferNode(SampleBuffer buffer) {
+		super(buffer.format, buffer.frames);
+		this.buffer = buffer;
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		buffer.read(frame, dst, offset, count);
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		// the index belongs to the buffer, so every node that reads it shares one
+		buffer.index(null).summarize(this, ctx, from, to, tolerance, gain, into);
+	}
+}
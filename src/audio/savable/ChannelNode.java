@@ -0,0 +1,66 @@
+package audio.savable;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts a node from mono to stereo, or from stereo to mono.
+ *
+ */
+class ChannelNode extends AudioNode {
+	final AudioNode source;
+	final boolean left;
+	final boolean right;
+
+	private ChannelNode(AudioNode source, AudioFormat format, boolean left, boolean right) {
+		super(format, source.frames);
+		this.source = source;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Copies a mono node into the left and/or right channel of a stereo node.
+	 *
+	 * @param source
+	 * @param format the stereo format
+	 * @param left
+	 * @param right
+	 * @return AudioNode
+	 */
+	static AudioNode toStereo(AudioNode source, AudioFormat format, boolean left, boolean right) {
+		return new ChannelNode(source, format, left, right);
+	}
+
+	/**
+	 * Averages the left and right channels of a stereo node.
+	 *
+	 * @param source
+	 * @param format the mono format
+	 * @return AudioNode
+	 */
+	static AudioNode toMono(AudioNode source, AudioFormat format) {
+		return new ChannelNode(source, format, true, true);
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		float[] src = ctx.borrow(count * source.channels);
+		source.read(ctx, frame, src, 0, count);
+
+		if (channels == 2) {
+			// copy each mono sample into the channels that are turned on
+			float leftGain = left ? 1 : 0;
+			float rightGain = right ? 1 : 0;
+			for (int i = 0; i < count; i++) {
+				dst[offset + 2 * i] = src[i] * leftGain;
+				dst[offset + 2 * i + 1] = src[i] * rightGain;
+			}
+		} else {
+			// average the left and right samples of each frame
+			for (int i = 0; i < count; i++) {
+				dst[offset + i] = (src[2 * i] + src[2 * i + 1]) * 0.5f;
+			}
+		}
+		ctx.release();
+	}
+}
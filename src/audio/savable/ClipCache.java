@@ -0,0 +1,214 @@
+package audio.savable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the decoded samples of files that were loaded into memory, so loading
+ * the same file again (or appending or mixing it from its file path) does not
+ * read and decode it again. A file is only found in the cache if its path,
+ * size and last modified time are all the same as when it was loaded, and it
+ * has not been saved over by a SavableAudio since.
+ *
+ * The cache holds up to a budget of bytes. When it is full, the files that
+ * were used longest ago are forgotten first. The samples in the cache are
+ * never changed, so the same samples are shared by every SavableAudio that
+ * loads them. The cache counts as a user of the samples it holds, so they are
+ * not freed when those SavableAudio classes are closed.
+ *
+ */
+public class ClipCache {
+	// the cache is small by default, it is meant for short clips that are used again
+	static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	// the files in the order they were last used, the oldest first
+	private static final LinkedHashMap<String, SampleBuffer> ENTRIES = new LinkedHashMap<String, SampleBuffer>(16,
+			0.75f, true);
+
+	private static long budget = DEFAULT_BUDGET;
+	private static long size = 0;
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+
+	private ClipCache() {
+	}
+
+	/**
+	 * Sets how many bytes of decoded audio the cache can hold. Files that are
+	 * bigger than the budget are not cached, and a budget of 0 turns the cache
+	 * off.
+	 *
+	 * @param bytes
+	 */
+	public static synchronized void setBudget(long bytes) {
+		budget = Math.max(0, bytes);
+		evict();
+	}
+
+	public static synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * returns the number of bytes of decoded audio in the cache
+	 *
+	 * @return long
+	 */
+	public static synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * returns the number of files in the cache
+	 *
+	 * @return int
+	 */
+	public static synchronized int getCount() {
+		return ENTRIES.size();
+	}
+
+	/**
+	 * returns the number of loads that were found in the cache
+	 *
+	 * @return long
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * returns the number of loads that had to read the file
+	 *
+	 * @return long
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * returns the number of files that were forgotten to make room for others
+	 *
+	 * @return long
+	 */
+	public static synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Forgets every file in the cache
+	 */
+	public static synchronized void clear() {
+		for (SampleBuffer samples : ENTRIES.values()) {
+			samples.release();
+		}
+		ENTRIES.clear();
+		size = 0;
+	}
+
+	/**
+	 * Forgets every version of a file that is in the cache. Called when the file
+	 * is written over, as a file can be written again within the same second
+	 * and at the same size, so it would still have the same key.
+	 *
+	 * @param file
+	 */
+	static synchronized void invalidate(File file) {
+		String prefix;
+		try {
+			prefix = file.getCanonicalPath() + "|";
+		} catch (IOException e) {
+			return;
+		}
+		Iterator<Map.Entry<String, SampleBuffer>> entries = ENTRIES.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, SampleBuffer> entry = entries.next();
+			if (entry.getKey().startsWith(prefix)) {
+				SampleBuffer samples = entry.getValue();
+				size -= bytes(samples);
+				entries.remove();
+				samples.release();
+			}
+		}
+	}
+
+	/**
+	 * returns the key of a file as it is now, or null if it can not be cached
+	 *
+	 * @param file
+	 * @return String
+	 */
+	static String key(File file) {
+		try {
+			if (!file.isFile()) {
+				return null;
+			}
+			return file.getCanonicalPath() + "|" + file.lastModified() + "|" + file.length();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * returns the samples loaded from the file with the given key, or null if
+	 * they are not in the cache. The caller is counted as a user of the samples
+	 * before they are returned, so they can not be freed in between.
+	 *
+	 * @param key
+	 * @return SampleBuffer
+	 */
+	static synchronized SampleBuffer get(String key) {
+		if (key == null || budget == 0) {
+			return null;
+		}
+		SampleBuffer samples = ENTRIES.get(key);
+		if (samples == null) {
+			misses++;
+		} else {
+			hits++;
+			samples.retain();
+		}
+		return samples;
+	}
+
+	/**
+	 * Adds the samples loaded from the file with the given key, making room by
+	 * forgetting the files that were used longest ago
+	 *
+	 * @param key
+	 * @param samples
+	 */
+	static synchronized void put(String key, SampleBuffer samples) {
+		long bytes = bytes(samples);
+		if (key == null || bytes > budget) {
+			return;
+		}
+		samples.retain();
+		SampleBuffer old = ENTRIES.put(key, samples);
+		if (old != null) {
+			size -= bytes(old);
+			old.release();
+		}
+		size += bytes;
+		evict();
+	}
+
+	// forgets the oldest files until the cache fits into the budget
+	private static void evict() {
+		Iterator<Map.Entry<String, SampleBuffer>> oldest = ENTRIES.entrySet().iterator();
+		while (size > budget && oldest.hasNext()) {
+			SampleBuffer samples = oldest.next().getValue();
+			size -= bytes(samples);
+			oldest.remove();
+			samples.release();
+			evictions++;
+		}
+	}
+
+	private static long bytes(SampleBuffer samples) {
+		return samples.bytes();
+	}
+}
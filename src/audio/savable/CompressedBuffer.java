@@ -0,0 +1,606 @@
+package audio.savable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Holds the samples of an audio clip compressed without losing anything, for
+ * clips that are kept in memory but only used now and then. It works like
+ * FLAC: the clip is split into blocks, each sample of a block is guessed from
+ * the samples before it (with whichever of five fixed guesses fits the block
+ * best), and only how far each guess was off is kept, with Rice coding so that
+ * small numbers take few bits. A stereo block also picks whether to keep the
+ * left and right channels or the difference between them, which is small when
+ * the channels are alike.
+ *
+ * The samples are kept exactly as they would be saved, so saving compressed
+ * audio gives the same bytes as saving it before it was compressed. Each
+ * block is decoded on its own, so any part of the clip can be read without
+ * decoding the rest. The last block decoded on each thread is kept, so
+ * reading a clip from start to end decodes each block once.
+ *
+ * A block that does not get any smaller (like loud noise) is kept as it is,
+ * so compressed audio never takes more memory than it did before.
+ *
+ * Only 8, 16 and 24 bit samples can be compressed. Compressed samples can not
+ * be written over, so edits made in place copy them first.
+ *
+ */
+final class CompressedBuffer extends SampleBuffer {
+	// the number of frames in each block
+	static final int BLOCK_FRAMES = 4096;
+
+	// each channel of a block is split into parts of this many samples, which
+	// each have a Rice parameter of their own
+	private static final int PART_SAMPLES = 256;
+
+	// a Rice parameter of this means the part is kept as plain numbers instead
+	private static final int ESCAPE = 31;
+
+	// the ways the two channels of a stereo block can be kept
+	private static final int LEFT_RIGHT = 0;
+	private static final int LEFT_SIDE = 1;
+	private static final int SIDE_RIGHT = 2;
+	private static final int MID_SIDE = 3;
+
+	private static final ThreadLocal<Decoder> DECODERS = new ThreadLocal<Decoder>() {
+		@Override
+		protected Decoder initialValue() {
+			return new Decoder();
+		}
+	};
+
+	private final byte[][] blocks;
+	private final float scale;
+	private final long bytes;
+
+	private CompressedBuffer(AudioFormat format, long frames, byte[][] blocks) {
+		super(format, frames, new ByteBuffer[0]);
+		this.blocks = blocks;
+		this.scale = 1f / (1 << (format.getSampleSizeInBits() - 1));
+		long total = 0;
+		for (byte[] block : blocks) {
+			total += block.length;
+		}
+		this.bytes = total;
+	}
+
+	/**
+	 * returns true if audio in the given format can be compressed
+	 *
+	 * @param format
+	 * @return boolean
+	 */
+	static boolean isSupported(AudioFormat format) {
+		AudioFormat.Encoding encoding = format.getEncoding();
+		boolean integer = encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+				|| encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED);
+		return integer && format.getSampleSizeInBits() <= 24 && SampleBuffer.isSupported(format);
+	}
+
+	/**
+	 * Works out all the samples of a node and compresses them, one block at a
+	 * time. The samples are rounded and clipped the same way as when they are
+	 * saved.
+	 *
+	 * @param node
+	 * @return CompressedBuffer
+	 */
+	static CompressedBuffer compress(AudioNode node) {
+		int channels = node.channels;
+		byte[][] blocks = new byte[(int) ((node.frames + BLOCK_FRAMES - 1) / BLOCK_FRAMES)][];
+		Encoder encoder = new Encoder(channels, node.format.getSampleSizeInBits());
+		RenderContext ctx = new RenderContext();
+		float[] samples = new float[BLOCK_FRAMES * channels];
+		for (int block = 0; block < blocks.length; block++) {
+			long frame = (long) block * BLOCK_FRAMES;
+			int count = (int) Math.min(BLOCK_FRAMES, node.frames - frame);
+			node.read(ctx, frame, samples, 0, count);
+			blocks[block] = encoder.encode(samples, count);
+		}
+		return new CompressedBuffer(node.format, node.frames, blocks);
+	}
+
+	@Override
+	void read(long frame, float[] dst, int offset, int count) {
+		Decoder decoder = DECODERS.get();
+		while (count > 0) {
+			// read as many frames as are left in the block that holds this frame
+			int block = (int) (frame / BLOCK_FRAMES);
+			int index = (int) (frame - (long) block * BLOCK_FRAMES);
+			int part = Math.min(count, BLOCK_FRAMES - index);
+			decoder.decode(this, block);
+			decoder.copy(index, dst, offset, part, channels, scale);
+
+			frame += part;
+			offset += part * channels;
+			count -= part;
+		}
+	}
+
+	@Override
+	boolean isWritable() {
+		return false;
+	}
+
+	/**
+	 * returns the number of bytes the compressed samples take up
+	 *
+	 * @return long
+	 */
+	@Override
+	long bytes() {
+		return bytes;
+	}
+
+	// the guess of a sample from the samples before it, with the given order
+	private static int predict(int[] x, int i, int order) {
+		switch (order) {
+		case 1:
+			return x[i - 1];
+		case 2:
+			return 2 * x[i - 1] - x[i - 2];
+		case 3:
+			return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+		case 4:
+			return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Compresses blocks of samples. The arrays are kept from block to block, so
+	 * compressing a clip only allocates the bytes of each block.
+	 *
+	 */
+	private static final class Encoder {
+		private static final int MAX_ORDER = 4;
+
+		private final int channels;
+		private final int bits;
+		private final float full;
+		private final int[][] samples;
+		private final int[] mid = new int[BLOCK_FRAMES];
+		private final int[] side = new int[BLOCK_FRAMES];
+		private final int[] residuals = new int[BLOCK_FRAMES];
+		private final long[] costs = new long[MAX_ORDER + 1];
+		private final BitWriter out = new BitWriter();
+
+		// the cost of the order that bestOrder() picked last
+		private long bestCost;
+
+		Encoder(int channels, int bits) {
+			this.channels = channels;
+			this.bits = bits;
+			this.full = 1 << (bits - 1);
+			this.samples = new int[channels][BLOCK_FRAMES];
+		}
+
+		byte[] encode(float[] src, int count) {
+			// round and clip the samples the same way the codecs do when saving
+			float full = this.full;
+			float max = full - 1;
+			for (int channel = 0; channel < channels; channel++) {
+				int[] x = samples[channel];
+				for (int i = 0; i < count; i++) {
+					float scaled = src[i * channels + channel] * full;
+					scaled = scaled > max ? max : scaled;
+					scaled = scaled < -full ? -full : scaled;
+					x[i] = (int) (scaled + (scaled < 0 ? -0.5f : 0.5f));
+				}
+			}
+
+			out.reset();
+			if (channels == 2) {
+				// keep whichever two of left, right, their difference and their middle cost the least
+				int[] left = samples[0];
+				int[] right = samples[1];
+				for (int i = 0; i < count; i++) {
+					side[i] = left[i] - right[i];
+					mid[i] = (left[i] + right[i]) >> 1;
+				}
+				int leftOrder = bestOrder(left, count);
+				long leftCost = bestCost;
+				int rightOrder = bestOrder(right, count);
+				long rightCost = bestCost;
+				int sideOrder = bestOrder(side, count);
+				long sideCost = bestCost;
+				int midOrder = bestOrder(mid, count);
+				long midCost = bestCost;
+
+				int mode = LEFT_RIGHT;
+				long best = leftCost + rightCost;
+				if (leftCost + sideCost < best) {
+					mode = LEFT_SIDE;
+					best = leftCost + sideCost;
+				}
+				if (sideCost + rightCost < best) {
+					mode = SIDE_RIGHT;
+					best = sideCost + rightCost;
+				}
+				if (midCost + sideCost < best) {
+					mode = MID_SIDE;
+				}
+				out.write(mode, 2);
+				if (mode == LEFT_RIGHT || mode == LEFT_SIDE) {
+					encodeChannel(left, leftOrder, count);
+				} else if (mode == SIDE_RIGHT) {
+					encodeChannel(side, sideOrder, count);
+				} else {
+					encodeChannel(mid, midOrder, count);
+				}
+				if (mode == LEFT_RIGHT || mode == SIDE_RIGHT) {
+					encodeChannel(right, rightOrder, count);
+				} else {
+					encodeChannel(side, sideOrder, count);
+				}
+			} else {
+				for (int channel = 0; channel < channels; channel++) {
+					encodeChannel(samples[channel], bestOrder(samples[channel], count), count);
+				}
+			}
+
+			// a block that did not get any smaller is kept as the samples themselves,
+			// which is told apart by being exactly the size of the samples
+			if (out.size() >= count * channels * bits / 8) {
+				out.reset();
+				for (int i = 0; i < count; i++) {
+					for (int channel = 0; channel < channels; channel++) {
+						out.write(samples[channel][i], bits);
+					}
+				}
+			}
+			return out.toByteArray();
+		}
+
+		// picks the order whose guesses are off by the least in total
+		private int bestOrder(int[] x, int count) {
+			Arrays.fill(costs, 0);
+			int first = Math.min(count, MAX_ORDER);
+			for (int i = 0; i < first; i++) {
+				for (int order = 0; order <= MAX_ORDER; order++) {
+					costs[order] += Math.abs(x[i] - predict(x, i, Math.min(order, i)));
+				}
+			}
+
+			// the guess of each order is off by the difference of that order, which is
+			// worked out from the differences of the sample before
+			if (count > MAX_ORDER) {
+				long cost0 = 0, cost1 = 0, cost2 = 0, cost3 = 0, cost4 = 0;
+				int last0 = x[3];
+				int last1 = x[3] - x[2];
+				int last2 = last1 - (x[2] - x[1]);
+				int last3 = last2 - (x[2] - 2 * x[1] + x[0]);
+				for (int i = MAX_ORDER; i < count; i++) {
+					int error0 = x[i];
+					int error1 = error0 - last0;
+					int error2 = error1 - last1;
+					int error3 = error2 - last2;
+					int error4 = error3 - last3;
+					cost0 += Math.abs(error0);
+					cost1 += Math.abs(error1);
+					cost2 += Math.abs(error2);
+					cost3 += Math.abs(error3);
+					cost4 += Math.abs(error4);
+					last0 = error0;
+					last1 = error1;
+					last2 = error2;
+					last3 = error3;
+				}
+				costs[0] += cost0;
+				costs[1] += cost1;
+				costs[2] += cost2;
+				costs[3] += cost3;
+				costs[4] += cost4;
+			}
+			int best = 0;
+			for (int order = 1; order <= MAX_ORDER; order++) {
+				if (costs[order] < costs[best]) {
+					best = order;
+				}
+			}
+			bestCost = costs[best];
+			return best;
+		}
+
+		private void encodeChannel(int[] x, int order, int count) {
+			out.write(order, 3);
+
+			// the first few samples are guessed from the samples there are before them
+			for (int i = 0; i < count; i++) {
+				int error = x[i] - predict(x, i, Math.min(order, i));
+				residuals[i] = (error << 1) ^ (error >> 31);
+			}
+
+			for (int start = 0; start < count; start += PART_SAMPLES) {
+				encodePart(start, Math.min(PART_SAMPLES, count - start));
+			}
+		}
+
+		// writes a part of the residuals with the Rice parameter that takes the fewest bits
+		private void encodePart(int start, int count) {
+			long sum = 0;
+			int largest = 0;
+			for (int i = start; i < start + count; i++) {
+				sum += residuals[i];
+				largest = Math.max(largest, residuals[i]);
+			}
+
+			// the best parameter is close to the number of bits in the average
+			long mean = sum / count;
+			int guess = mean == 0 ? 0 : 63 - Long.numberOfLeadingZeros(mean);
+			int bestK = ESCAPE;
+			int width = 32 - Integer.numberOfLeadingZeros(largest);
+			long bestBits = 5 + (long) count * width;
+			for (int k = Math.max(0, guess - 1); k <= Math.min(ESCAPE - 1, guess + 1); k++) {
+				long bits = (long) count * (k + 1);
+				for (int i = start; i < start + count; i++) {
+					bits += residuals[i] >>> k;
+				}
+				if (bits < bestBits) {
+					bestBits = bits;
+					bestK = k;
+				}
+			}
+
+			out.write(bestK, 5);
+			if (bestK == ESCAPE) {
+				// a part that Rice coding would make bigger is kept as plain numbers
+				out.write(width, 5);
+				if (width > 0) {
+					for (int i = start; i < start + count; i++) {
+						out.write(residuals[i], width);
+					}
+				}
+			} else {
+				for (int i = start; i < start + count; i++) {
+					out.writeRice(residuals[i], bestK);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes numbers of any number of bits into a growing array of bytes, the
+	 * highest bit first
+	 *
+	 */
+	private static final class BitWriter {
+		private byte[] data = new byte[1024];
+		private int size;
+		private long bits;
+		private int count;
+
+		void reset() {
+			size = 0;
+			bits = 0;
+			count = 0;
+		}
+
+		// writes the lowest bits of a value, up to 32 of them
+		void write(int value, int length) {
+			if (size + 8 > data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			bits = bits << length | (value & ((1L << length) - 1));
+			count += length;
+			while (count >= 8) {
+				count -= 8;
+				data[size++] = (byte) (bits >>> count);
+			}
+		}
+
+		// writes the top of the value as that many 0 bits and a 1, then the lowest k bits
+		void writeRice(int value, int k) {
+			int quotient = value >>> k;
+			while (quotient >= 32) {
+				write(0, 32);
+				quotient -= 32;
+			}
+			write(1, quotient + 1);
+			if (k > 0) {
+				write(value, k);
+			}
+		}
+
+		// the number of bytes written so far, counting a part byte as a whole one
+		int size() {
+			return size + (count > 0 ? 1 : 0);
+		}
+
+		byte[] toByteArray() {
+			if (count > 0) {
+				write(0, 8 - count);
+			}
+			return Arrays.copyOf(data, size);
+		}
+	}
+
+	/**
+	 * Decodes one block at a time and keeps it, so reading the next frames of
+	 * the same block does not decode it again. There is one decoder for each
+	 * thread.
+	 *
+	 */
+	private static final class Decoder {
+		// the bytes of the block that is decoded, which no other block shares
+		private byte[] block;
+		private int[][] samples = new int[0][];
+
+		// the bytes being read, and the next bits of them from the highest bit down
+		private byte[] data;
+		private int position;
+		private long bits;
+		private int count;
+
+		void decode(CompressedBuffer buffer, int index) {
+			byte[] data = buffer.blocks[index];
+			if (data == block) {
+				return;
+			}
+			block = null;
+			int channels = buffer.channels;
+			if (samples.length < channels) {
+				samples = new int[channels][BLOCK_FRAMES];
+			}
+			int frames = (int) Math.min(BLOCK_FRAMES, buffer.frames - (long) index * BLOCK_FRAMES);
+
+			this.data = data;
+			position = 0;
+			bits = 0;
+			count = 0;
+			int sampleBits = buffer.format.getSampleSizeInBits();
+			if (data.length == frames * channels * sampleBits / 8) {
+				// the block was kept as the samples themselves
+				int shift = 32 - sampleBits;
+				for (int i = 0; i < frames; i++) {
+					for (int channel = 0; channel < channels; channel++) {
+						samples[channel][i] = read(sampleBits) << shift >> shift;
+					}
+				}
+				this.data = null;
+				block = data;
+				return;
+			}
+			int mode = channels == 2 ? read(2) : LEFT_RIGHT;
+			for (int channel = 0; channel < channels; channel++) {
+				decodeChannel(samples[channel], frames);
+			}
+
+			// turn the channels that were kept back into left and right
+			if (mode != LEFT_RIGHT) {
+				int[] a = samples[0];
+				int[] b = samples[1];
+				for (int i = 0; i < frames; i++) {
+					if (mode == LEFT_SIDE) {
+						b[i] = a[i] - b[i];
+					} else if (mode == SIDE_RIGHT) {
+						a[i] = a[i] + b[i];
+					} else {
+						int sum = a[i] << 1 | b[i] & 1;
+						int side = b[i];
+						a[i] = (sum + side) >> 1;
+						b[i] = (sum - side) >> 1;
+					}
+				}
+			}
+			this.data = null;
+			block = data;
+		}
+
+		private void decodeChannel(int[] x, int frames) {
+			int order = read(3);
+
+			// read how far off each guess was
+			for (int start = 0; start < frames; start += PART_SAMPLES) {
+				int end = Math.min(frames, start + PART_SAMPLES);
+				int k = read(5);
+				if (k == ESCAPE) {
+					int width = read(5);
+					for (int i = start; i < end; i++) {
+						int value = width == 0 ? 0 : read(width);
+						x[i] = (value >>> 1) ^ -(value & 1);
+					}
+				} else {
+					for (int i = start; i < end; i++) {
+						int value = rice(k);
+						x[i] = (value >>> 1) ^ -(value & 1);
+					}
+				}
+			}
+
+			// add the guesses back, the first few from the samples there are before them
+			int i = 0;
+			for (; i < Math.min(order, frames); i++) {
+				x[i] += predict(x, i, i);
+			}
+			switch (order) {
+			case 1:
+				for (; i < frames; i++) {
+					x[i] += x[i - 1];
+				}
+				break;
+			case 2:
+				for (; i < frames; i++) {
+					x[i] += 2 * x[i - 1] - x[i - 2];
+				}
+				break;
+			case 3:
+				for (; i < frames; i++) {
+					x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+				}
+				break;
+			case 4:
+				for (; i < frames; i++) {
+					x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		// puts the decoded samples of a part of the block into a float array
+		void copy(int index, float[] dst, int offset, int frames, int channels, float scale) {
+			if (channels == 2) {
+				int[] left = samples[0];
+				int[] right = samples[1];
+				for (int i = 0; i < frames; i++) {
+					dst[offset + 2 * i] = left[index + i] * scale;
+					dst[offset + 2 * i + 1] = right[index + i] * scale;
+				}
+				return;
+			}
+			for (int channel = 0; channel < channels; channel++) {
+				int[] x = samples[channel];
+				for (int i = 0; i < frames; i++) {
+					dst[offset + i * channels + channel] = x[index + i] * scale;
+				}
+			}
+		}
+
+		// fills the bits up to at least 56 of them, with 0 bits after the end
+		private void refill() {
+			while (count <= 56) {
+				int next = position < data.length ? data[position] & 0xff : 0;
+				position++;
+				bits |= (long) next << (56 - count);
+				count += 8;
+			}
+		}
+
+		// reads a number of 1 to 32 bits
+		private int read(int length) {
+			if (count < length) {
+				refill();
+			}
+			int value = (int) (bits >>> (64 - length));
+			bits <<= length;
+			count -= length;
+			return value;
+		}
+
+		private int rice(int k) {
+			// count the 0 bits before the next 1
+			int quotient = 0;
+			while (true) {
+				if (count <= 32) {
+					refill();
+				}
+				int zeros = Long.numberOfLeadingZeros(bits);
+				if (zeros < count) {
+					quotient += zeros;
+					bits = bits << zeros << 1;
+					count -= zeros + 1;
+					break;
+				}
+				quotient += count;
+				bits = 0;
+				count = 0;
+			}
+			return k == 0 ? quotient : quotient << k | read(k);
+		}
+	}
+}
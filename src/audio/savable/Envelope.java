@@ -0,0 +1,134 @@
+package audio.savable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A volume that changes over time, for fading, ducking or any other volume
+ * automation. An envelope is a list of points, each with a time (in seconds)
+ * and a volume (a percentage with 100% being normal), and the volume moves
+ * from one point to the next along a curve:
+ *
+ * LINEAR moves the volume by the same amount every frame.
+ * EXPONENTIAL moves it by the same number of decibels every frame, which
+ * sounds even to the ear. It can not reach 0, so it stops at -80 dB.
+ * EQUAL_POWER follows a quarter of a sine wave, so two sounds that cross
+ * fade with it keep the same loudness.
+ *
+ * Before the first point the volume is the volume of the first point, and
+ * after the last point it is the volume of the last point. Two points at the
+ * same time make the volume jump. The whole envelope is applied in the same
+ * pass as every other volume change when the audio is saved, however many
+ * points it has.
+ *
+ */
+public class Envelope {
+	public static final int LINEAR = GainCurve.LINEAR;
+	public static final int EXPONENTIAL = GainCurve.EXPONENTIAL;
+	public static final int EQUAL_POWER = GainCurve.EQUAL_POWER;
+
+	private final List<double[]> points = new ArrayList<double[]>();
+
+	/**
+	 * Adds a point that the volume moves to in a straight line
+	 *
+	 * @param time
+	 * @param volume
+	 * @throws IllegalArgumentException if the time or volume is negative
+	 */
+	public void add(double time, double volume) {
+		add(time, volume, LINEAR);
+	}
+
+	/**
+	 * Adds a point, with the curve the volume takes from the point before it.
+	 * Points can be added in any order.
+	 *
+	 * @param time
+	 * @param volume
+	 * @param curve  LINEAR, EXPONENTIAL or EQUAL_POWER
+	 * @throws IllegalArgumentException if the time or volume is negative, or the
+	 *                                  curve is not one of the curves
+	 */
+	public void add(double time, double volume, int curve) {
+		// check for numbers that do not make sense
+		if (time < 0 || volume < 0) {
+			throw new IllegalArgumentException("Invalid envelope point: time and volume cannot be negative numbers");
+		}
+		if (curve != LINEAR && curve != EXPONENTIAL && curve != EQUAL_POWER) {
+			throw new IllegalArgumentException("Invalid curve: must be LINEAR, EXPONENTIAL or EQUAL_POWER");
+		}
+
+		// keep the points in order of time, after any points at the same time
+		int index = points.size();
+		while (index > 0 && points.get(index - 1)[0] > time) {
+			index--;
+		}
+		points.add(index, new double[] { time, volume, curve });
+	}
+
+	/**
+	 * Turns the volume down to the given volume from the start time to the end
+	 * time, such as to duck music under a voice. The volume ramps down over
+	 * the ramp time before the start, and back up to normal over the ramp time
+	 * after the end, along equal power curves.
+	 *
+	 * @param startTime
+	 * @param endTime
+	 * @param volume
+	 * @param rampTime
+	 * @throws IllegalArgumentException if the end time is before the start time,
+	 *                                  or a time or the volume is negative
+	 */
+	public void duck(double startTime, double endTime, double volume, double rampTime) {
+		// check for numbers that do not make sense
+		if (startTime < 0 || volume < 0 || rampTime < 0) {
+			throw new IllegalArgumentException("Invalid duck: times and volume cannot be negative numbers");
+		}
+		if (endTime < startTime) {
+			throw new IllegalArgumentException("Invalid duck: the end time must be after the start time");
+		}
+		add(Math.max(0, startTime - rampTime), 100, EQUAL_POWER);
+		add(startTime, volume, EQUAL_POWER);
+		add(endTime, volume, EQUAL_POWER);
+		add(endTime + rampTime, 100, EQUAL_POWER);
+	}
+
+	/**
+	 * returns the number of points
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * Forgets all the points
+	 */
+	public void clear() {
+		points.clear();
+	}
+
+	/**
+	 * Turns the points into a gain curve for audio with the given sample rate.
+	 * The curve is a copy, so changing the envelope afterwards does not change
+	 * audio it was applied to.
+	 *
+	 * @param sampleRate
+	 * @return GainCurve
+	 */
+	GainCurve toCurve(float sampleRate) {
+		int count = points.size();
+		long[] frames = new long[count];
+		double[] gains = new double[count];
+		int[] curves = new int[count];
+		for (int i = 0; i < count; i++) {
+			double[] point = points.get(i);
+			frames[i] = (long) (point[0] * sampleRate);
+			gains[i] = point[1] / 100;
+			curves[i] = (int) point[2];
+		}
+		return new GainCurve(frames, gains, curves);
+	}
+}
@@ -0,0 +1,46 @@
+package audio.savable;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Gives another node a different format without changing its samples, such as
+ * when the endian is swapped. The new format is used when the samples are
+ * encoded into bytes.
+ *
+ */
+class FormatNode extends AudioNode {
+	final AudioNode source;
+
+	private FormatNode(AudioNode source, AudioFormat format) {
+		super(format, source.frames);
+		this.source = source;
+	}
+
+	/**
+	 * Gives a node a new format. Changing the format twice only keeps the last
+	 * one.
+	 *
+	 * @param source
+	 * @param format
+	 * @return AudioNode
+	 */
+	static AudioNode of(AudioNode source, AudioFormat format) {
+		if (source instanceof FormatNode) {
+			source = ((FormatNode) source).source;
+		}
+		if (source.format.matches(format) && format.matches(source.format)) {
+			return source;
+		}
+		return new FormatNode(source, format);
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		source.read(ctx, frame, dst, offset, count);
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		source.summarize(ctx, from, to, tolerance, gain, into);
+	}
+}
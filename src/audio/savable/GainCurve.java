@@ -0,0 +1,187 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * A gain that changes over time, made of points (a frame and a gain) joined
+ * by linear, exponential or equal power curves. Before the first point the
+ * gain is the gain of the first point, and after the last point it is the
+ * gain of the last point.
+ *
+ * The gain is worked out once for each frame and used for every channel of
+ * the frame. Each frame is worked out from where it is in the curve, so the
+ * gains do not depend on how the audio is split into chunks.
+ *
+ */
+final class GainCurve {
+	static final int LINEAR = 0;
+	static final int EXPONENTIAL = 1;
+	static final int EQUAL_POWER = 2;
+
+	// exponential curves can not reach 0, so they stop at -80 dB instead
+	static final double SILENT = 1e-4;
+
+	// exponential curves are stepped from the start of each block of this many
+	// frames, so the steps always start at the same frames
+	private static final int STEP_FRAMES = 256;
+
+	// a quarter of a sine wave, for equal power curves, with the last value
+	// repeated so the end of the curve can be looked up like the rest of it
+	private static final int TABLE_SIZE = 1024;
+	private static final double[] QUARTER_SINE = new double[TABLE_SIZE + 2];
+	static {
+		for (int i = 0; i <= TABLE_SIZE; i++) {
+			QUARTER_SINE[i] = Math.sin(i * Math.PI / 2 / TABLE_SIZE);
+		}
+		QUARTER_SINE[TABLE_SIZE + 1] = QUARTER_SINE[TABLE_SIZE];
+	}
+
+	private final long[] frames;
+	private final double[] gains;
+
+	// the curve from each point to the next one
+	private final int[] curves;
+
+	/**
+	 * Makes a curve from points that are in order of their frames. A point at
+	 * the same frame as the one before it makes the gain jump there.
+	 *
+	 * @param frames
+	 * @param gains
+	 * @param curves the curve that leads up to each point
+	 */
+	GainCurve(long[] frames, double[] gains, int[] curves) {
+		this.frames = frames.clone();
+		this.gains = gains.clone();
+		this.curves = Arrays.copyOfRange(curves, 1, Math.max(1, curves.length));
+	}
+
+	/**
+	 * returns the gain if it is the same for every frame from start to end, or
+	 * NaN if it changes
+	 *
+	 * @param start the first frame
+	 * @param end   the frame after the last frame
+	 * @return double
+	 */
+	double constant(long start, long end) {
+		int last = frames.length - 1;
+		if (end <= frames[0]) {
+			return gains[0];
+		}
+		if (start >= frames[last]) {
+			return gains[last];
+		}
+
+		// a range between two points with the same gain does not change either
+		int i = segment(start);
+		if (i >= 0 && i < last && end <= frames[i + 1] && gains[i] == gains[i + 1]) {
+			return gains[i];
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Multiplies the gains of a run of frames by the curve
+	 *
+	 * @param firstFrame
+	 * @param out   the gain of each frame
+	 * @param count
+	 */
+	void apply(long firstFrame, double[] out, int count) {
+		int last = frames.length - 1;
+		int i = 0;
+		long frame = firstFrame;
+		while (i < count) {
+			int segment = segment(frame);
+			if (segment < 0 || segment == last) {
+				// before the first point or after the last one the gain stays the same
+				double gain = gains[segment < 0 ? 0 : last];
+				int end = segment < 0 ? clamp(frames[0] - firstFrame, count) : count;
+				for (; i < end; i++) {
+					out[i] *= gain;
+				}
+			} else {
+				int end = clamp(frames[segment + 1] - firstFrame, count);
+				ramp(segment, firstFrame, out, i, end);
+				i = end;
+			}
+			frame = firstFrame + i;
+		}
+	}
+
+	// multiplies the gains of the frames from i to end by one part of the curve
+	private void ramp(int segment, long firstFrame, double[] out, int i, int end) {
+		long start = frames[segment];
+		double length = frames[segment + 1] - start;
+		double from = gains[segment];
+		double to = gains[segment + 1];
+
+		switch (curves[segment]) {
+		case EXPONENTIAL: {
+			// the gain is multiplied by the same amount each frame, starting again
+			// from the exact gain at the start of each block
+			double low = Math.max(from, SILENT);
+			double ratio = Math.max(to, SILENT) / low;
+			double step = Math.pow(ratio, 1 / length);
+			while (i < end) {
+				long position = firstFrame + i - start;
+				long block = position / STEP_FRAMES * STEP_FRAMES;
+				double gain = low * Math.pow(ratio, block / length);
+				for (long k = block; k < position; k++) {
+					gain *= step;
+				}
+				int blockEnd = (int) Math.min(end, i + block + STEP_FRAMES - position);
+				for (; i < blockEnd; i++) {
+					out[i] *= gain;
+					gain *= step;
+				}
+			}
+			break;
+		}
+		case EQUAL_POWER: {
+			// going up follows a sine, going down a cosine, so the power stays even
+			// when one sound fades up while another fades down
+			// (both are worked out in the same loop, as sin(t) and 1 - sin(1 - t))
+			boolean up = to > from;
+			double flip = up ? 0 : 1;
+			double sign = up ? 1 : -1;
+			double change = to - from;
+			double position = firstFrame + i - start;
+			for (; i < end; i++, position++) {
+				double table = (flip + sign * (position / length)) * TABLE_SIZE;
+				int index = (int) table;
+				double blend = table - index;
+				double sine = QUARTER_SINE[index] + (QUARTER_SINE[index + 1] - QUARTER_SINE[index]) * blend;
+				out[i] *= from + change * (flip + sign * sine);
+			}
+			break;
+		}
+		default: {
+			double slope = (to - from) / length;
+			double position = firstFrame + i - start;
+			for (; i < end; i++, position++) {
+				out[i] *= from + slope * position;
+			}
+			break;
+		}
+		}
+	}
+
+	// returns the last point at or before a frame, or -1 if the frame is before every point
+	private int segment(long frame) {
+		int index = Arrays.binarySearch(frames, frame);
+		if (index < 0) {
+			return -index - 2;
+		}
+		// with more than one point at a frame, the last one is where the gain goes on from
+		while (index + 1 < frames.length && frames[index + 1] == frame) {
+			index++;
+		}
+		return index;
+	}
+
+	private static int clamp(long index, int count) {
+		return (int) Math.max(0, Math.min(count, index));
+	}
+}
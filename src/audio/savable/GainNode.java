@@ -0,0 +1,194 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * Changes the volume of another node, with any number of gain curves (fades,
+ * envelopes) on top. Volume changes and curves that are made one after the
+ * other are joined into a single GainNode, so they are all done in the same
+ * loop when the audio is read.
+ *
+ * The gain is worked out once for each frame, and every channel of the frame
+ * is multiplied by it.
+ *
+ */
+class GainNode extends AudioNode {
+	final AudioNode source;
+	final double volume;
+	final GainCurve[] curves;
+
+	private GainNode(AudioNode source, double volume, GainCurve[] curves) {
+		super(source.format, source.frames);
+		this.source = source;
+		this.volume = volume;
+		this.curves = curves;
+	}
+
+	/**
+	 * Multiplies the volume of a node.
+	 *
+	 * @param source
+	 * @param volume
+	 * @return AudioNode
+	 */
+	static AudioNode scale(AudioNode source, double volume) {
+		return of(source, volume, null);
+	}
+
+	/**
+	 * Multiplies the volume of a node by a gain curve.
+	 *
+	 * @param source
+	 * @param curve
+	 * @return AudioNode
+	 */
+	static AudioNode curve(AudioNode source, GainCurve curve) {
+		return of(source, 1, curve);
+	}
+
+	/**
+	 * Fades a node in from silence and out to silence, over the given number
+	 * of frames at each end. When the fades overlap, the frames in both get
+	 * both of them.
+	 *
+	 * @param source
+	 * @param fadeIn
+	 * @param fadeOut
+	 * @return AudioNode
+	 */
+	static AudioNode fade(AudioNode source, long fadeIn, long fadeOut) {
+		AudioNode node = source;
+		if (fadeIn > 0) {
+			node = curve(node, new GainCurve(new long[] { 0, fadeIn }, new double[] { 0, 1 },
+					new int[] { GainCurve.LINEAR, GainCurve.LINEAR }));
+		}
+		if (fadeOut > 0) {
+			node = curve(node, new GainCurve(new long[] { source.frames - fadeOut, source.frames },
+					new double[] { 1, 0 }, new int[] { GainCurve.LINEAR, GainCurve.LINEAR }));
+		}
+		return node;
+	}
+
+	private static AudioNode of(AudioNode source, double volume, GainCurve curve) {
+		// a format change does not touch the samples, so the gain can go under it
+		if (source instanceof FormatNode) {
+			FormatNode formatNode = (FormatNode) source;
+			return FormatNode.of(of(formatNode.source, volume, curve), formatNode.format);
+		}
+
+		// join this gain with the one before it
+		double oldVolume = 1;
+		GainCurve[] oldCurves = new GainCurve[0];
+		if (source instanceof GainNode) {
+			GainNode gain = (GainNode) source;
+			source = gain.source;
+			oldVolume = gain.volume;
+			oldCurves = gain.curves;
+		}
+
+		GainCurve[] curves = oldCurves;
+		if (curve != null) {
+			curves = Arrays.copyOf(oldCurves, oldCurves.length + 1);
+			curves[oldCurves.length] = curve;
+		}
+		return new GainNode(source, oldVolume * volume, curves);
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		source.read(ctx, frame, dst, offset, count);
+
+		double gain = constant(frame, frame + count);
+		if (!Double.isNaN(gain)) {
+			// the gain is the same for every sample
+			if (gain != 1) {
+				float scale = (float) gain;
+				int length = count * channels;
+				for (int i = 0; i < length; i++) {
+					dst[offset + i] *= scale;
+				}
+			}
+			return;
+		}
+
+		// work out the gain of every frame, one curve at a time
+		double[] gains = ctx.gains(count);
+		Arrays.fill(gains, 0, count, volume);
+		for (GainCurve curve : curves) {
+			curve.apply(frame, gains, count);
+		}
+		if (channels == 2) {
+			for (int i = 0; i < count; i++) {
+				float scale = (float) gains[i];
+				dst[offset + 2 * i] *= scale;
+				dst[offset + 2 * i + 1] *= scale;
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				float scale = (float) gains[i];
+				int start = offset + i * channels;
+				for (int channel = 0; channel < channels; channel++) {
+					dst[start + channel] *= scale;
+				}
+			}
+		}
+	}
+
+	// returns the gain if it is the same for every frame from start to end, or NaN
+	private double constant(long start, long end) {
+		double gain = volume;
+		for (GainCurve curve : curves) {
+			gain *= curve.constant(start, end);
+		}
+		return gain;
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		// the ends of each part can not move by more than a small part of it, or
+		// frames with a different gain would be pulled in from the part next to it
+		long length = to - from;
+		long partTolerance = Math.min(tolerance, length / 4);
+
+		// where the gain is the same over the whole range, it is just a volume
+		double constant = constant(from, to);
+		if (!Double.isNaN(constant)) {
+			source.summarize(ctx, from, to, partTolerance, (float) (gain * constant), into);
+			return;
+		}
+
+		if (length <= tolerance || length <= WaveformIndex.BLOCK_FRAMES) {
+			if (tolerance >= WaveformIndex.BLOCK_FRAMES) {
+				// once the gain hardly changes over the range, the gain in the middle is used
+				double first = gainAt(ctx, from);
+				double last = gainAt(ctx, to - 1);
+				double most = Math.max(Math.abs(volume), Math.max(Math.abs(first), Math.abs(last)));
+				if (Math.abs(last - first) <= most / 100) {
+					source.summarize(ctx, from, to, partTolerance, (float) (gain * gainAt(ctx, from + length / 2)),
+							into);
+					return;
+				}
+			}
+			if (length <= WaveformIndex.BLOCK_FRAMES) {
+				// a small range is read with the curves on it
+				WaveformIndex.read(this, ctx, from, to, gain, into);
+				return;
+			}
+		}
+
+		// split the range until the parts either have the same gain or are small enough
+		long middle = from + length / 2;
+		summarize(ctx, from, middle, tolerance, gain, into);
+		summarize(ctx, middle, to, tolerance, gain, into);
+	}
+
+	// the gain of a frame, with the volume and all the curves
+	private double gainAt(RenderContext ctx, long frame) {
+		double[] gains = ctx.gains(1);
+		gains[0] = volume;
+		for (GainCurve curve : curves) {
+			curve.apply(frame, gains, 1);
+		}
+		return gains[0];
+	}
+}
@@ -0,0 +1,97 @@
+package audio.savable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something took, in buckets that double in size (1 ns, 2 ns,
+ * 4 ns and so on). Recording a time is a few atomic adds, so it can be done
+ * from many threads at once without locking. Percentiles are rounded up to the
+ * top of their bucket, so they are at most twice the real time.
+ *
+ */
+public class LatencyHistogram {
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * records one time
+	 *
+	 * @param nanos
+	 */
+	void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+		total.addAndGet(nanos);
+
+		long oldMax;
+		while (nanos > (oldMax = max.get()) && !max.compareAndSet(oldMax, nanos)) {
+			// another thread changed the max, try again
+		}
+	}
+
+	/**
+	 * returns the number of times recorded
+	 *
+	 * @return long
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * returns the average time in milliseconds
+	 *
+	 * @return double
+	 */
+	public double getMeanMillis() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / 1e6 / count;
+	}
+
+	/**
+	 * returns the longest time in milliseconds
+	 *
+	 * @return double
+	 */
+	public double getMaxMillis() {
+		return max.get() / 1e6;
+	}
+
+	/**
+	 * returns the time in milliseconds that the given percentage of times were
+	 * shorter than, ex: getPercentileMillis(99)
+	 *
+	 * @param percentile
+	 * @return double
+	 */
+	public double getPercentileMillis(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= Math.max(1, rank)) {
+				// the top of the bucket, but never more than the longest time
+				return Math.min(max.get(), (1L << (i + 1)) - 1) / 1e6;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+}
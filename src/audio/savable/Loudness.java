@@ -0,0 +1,50 @@
+package audio.savable;
+
+/**
+ * How loud a stretch of audio is, in decibels. The peak is the loudest
+ * sample, and the true peak is the loudest point of the sound wave between
+ * the samples as well, which is what a player can clip on. The rms is the
+ * average level of the samples. The loudness is how loud the audio sounds,
+ * in LUFS as worked out by ITU-R BS.1770 (the way streaming services and
+ * broadcasters measure it), leaving out the silent parts.
+ *
+ * Audio that is silent has a level of negative infinity.
+ *
+ */
+public class Loudness {
+	// the loudest sample, in dB below full volume
+	public final double peak;
+
+	// the loudest point between the samples, in dB below full volume
+	public final double truePeak;
+
+	// the average level of the samples, in dB below full volume
+	public final double rms;
+
+	// how loud the audio sounds, in LUFS
+	public final double integrated;
+
+	Loudness(double peak, double truePeak, double rms, double integrated) {
+		this.peak = peak;
+		this.truePeak = truePeak;
+		this.rms = rms;
+		this.integrated = integrated;
+	}
+
+	/**
+	 * returns the loudness of the same audio after its volume is changed by a
+	 * number of decibels, which moves every level by the same amount
+	 *
+	 * @param decibels
+	 * @return Loudness
+	 */
+	Loudness plus(double decibels) {
+		return new Loudness(peak + decibels, truePeak + decibels, rms + decibels, integrated + decibels);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("peak %.1f dBFS, true peak %.1f dBTP, rms %.1f dBFS, loudness %.1f LUFS", peak, truePeak,
+				rms, integrated);
+	}
+}
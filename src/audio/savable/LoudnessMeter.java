@@ -0,0 +1,374 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * Measures the peak, true peak, rms and loudness of audio that is given to it
+ * one chunk after another, so audio of any length is measured in a single
+ * pass with the same small amount of memory.
+ *
+ * The loudness is worked out as in ITU-R BS.1770-4. Each channel goes through
+ * the K filter (a high shelf and a high pass, made for the sample rate), and
+ * the mean square of the filtered samples is taken over blocks of 400 ms that
+ * start every 100 ms. Blocks quieter than -70 LUFS are left out, then blocks
+ * more than 10 LU quieter than the rest. The blocks are counted into a
+ * histogram with a bin for every 0.1 LU instead of being kept, which holds
+ * the total of each bin exactly, so only blocks within 0.1 LU of the relative
+ * gate can be put on the wrong side of it. Audio that is shorter than a block
+ * is measured as a single block.
+ *
+ * The true peak is found by working out three points between each pair of
+ * samples (4 times oversampling) with a 12 tap windowed sinc. Parts of the
+ * audio that are too quiet for their points to be louder than the true peak
+ * found so far are skipped.
+ *
+ * A meter must only be used by one thread at a time.
+ *
+ */
+class LoudnessMeter {
+	// each step is 100 ms, and each gating block is 4 steps
+	private static final double STEP_SECONDS = 0.1;
+	private static final int STEPS_PER_BLOCK = 4;
+
+	// blocks quieter than this are left out, then blocks this much quieter than the rest
+	private static final double ABSOLUTE_GATE = -70;
+	private static final double RELATIVE_GATE = -10;
+
+	// the histogram of the blocks, from the absolute gate up
+	private static final int BINS_PER_LU = 10;
+	private static final int BINS = 90 * BINS_PER_LU;
+
+	// the points worked out between each pair of samples for the true peak
+	private static final int OVERSAMPLING = 4;
+	private static final int TAPS = 12;
+	private static final float[][] PHASES = new float[OVERSAMPLING - 1][TAPS];
+
+	// the most a point between samples can be louder than the samples around it
+	private static final double PHASE_GAIN;
+
+	// the frames whose samples are checked together before working out their true peak
+	private static final int TRUE_PEAK_BLOCK = 256;
+
+	static {
+		double gain = 1;
+		for (int phase = 0; phase < PHASES.length; phase++) {
+			// the point is this far after the middle sample of the taps
+			double offset = (phase + 1) / (double) OVERSAMPLING;
+			double[] taps = new double[TAPS];
+			double sum = 0;
+			for (int tap = 0; tap < TAPS; tap++) {
+				double x = TAPS / 2 - 1 + offset - tap;
+				double sinc = Math.sin(Math.PI * x) / (Math.PI * x);
+				double window = 0.5 + 0.5 * Math.cos(Math.PI * x / (TAPS / 2));
+				taps[tap] = sinc * window;
+				sum += taps[tap];
+			}
+
+			// a steady level goes through unchanged
+			double total = 0;
+			for (int tap = 0; tap < TAPS; tap++) {
+				PHASES[phase][tap] = (float) (taps[tap] / sum);
+				total += Math.abs(PHASES[phase][tap]);
+			}
+			gain = Math.max(gain, total);
+		}
+		PHASE_GAIN = gain;
+	}
+
+	private final int channels;
+	private final double[] weights;
+
+	// the K filter of each channel: a high shelf then a high pass, with their state
+	private final double shelfB0, shelfB1, shelfB2, shelfA1, shelfA2;
+	private final double passA1, passA2;
+	private final double[][] state;
+
+	// the steps of the block that is being filled
+	private final long stepFrames;
+	private final double[] steps = new double[STEPS_PER_BLOCK];
+	private long stepsDone = 0;
+	private long stepFill = 0;
+	private double stepEnergy = 0;
+	private double totalEnergy = 0;
+
+	private final long[] counts = new long[BINS];
+	private final double[] sums = new double[BINS];
+
+	// each channel of a chunk, after the last samples of the chunk before
+	private float[][] work;
+	private double[] energies = new double[0];
+	private final float[] shifted = new float[TRUE_PEAK_BLOCK];
+	private final float[][] points = new float[OVERSAMPLING - 1][TRUE_PEAK_BLOCK];
+
+	private long frames = 0;
+	private float peak = 0;
+	private double truePeak = 0;
+	private double squares = 0;
+
+	LoudnessMeter(int channels, float sampleRate) {
+		this.channels = channels;
+		this.stepFrames = Math.max(1, Math.round(sampleRate * STEP_SECONDS));
+		this.state = new double[channels][4];
+		this.work = new float[channels][TAPS - 1];
+
+		// surround channels count for more, and the low frequency channel of 5.1 is left out
+		weights = new double[channels];
+		for (int channel = 0; channel < channels; channel++) {
+			weights[channel] = 1;
+		}
+		if (channels == 5) {
+			weights[3] = 1.41;
+			weights[4] = 1.41;
+		} else if (channels == 6) {
+			weights[3] = 0;
+			weights[4] = 1.41;
+			weights[5] = 1.41;
+		}
+
+		// the filters of BS.1770 for any sample rate, from the analog filters they were made from
+		double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+		double q = 0.7071752369554196;
+		double vh = Math.pow(10, 3.999843853973347 / 20);
+		double vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1 + k / q + k * k;
+		shelfB0 = (vh + vb * k / q + k * k) / a0;
+		shelfB1 = 2 * (k * k - vh) / a0;
+		shelfB2 = (vh - vb * k / q + k * k) / a0;
+		shelfA1 = 2 * (k * k - 1) / a0;
+		shelfA2 = (1 - k / q + k * k) / a0;
+
+		k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+		q = 0.5003270373238773;
+		a0 = 1 + k / q + k * k;
+		passA1 = 2 * (k * k - 1) / a0;
+		passA2 = (1 - k / q + k * k) / a0;
+	}
+
+	/**
+	 * Measures all of a node, one chunk at a time
+	 *
+	 * @param node
+	 * @return Loudness
+	 */
+	static Loudness measure(AudioNode node) {
+		LoudnessMeter meter = new LoudnessMeter(node.channels, node.format.getSampleRate());
+		int chunkFrames = Renderer.chunkFrames(node);
+		float[] samples = new float[chunkFrames * node.channels];
+		RenderContext ctx = new RenderContext();
+		for (long frame = 0; frame < node.frames; frame += chunkFrames) {
+			int count = (int) Math.min(chunkFrames, node.frames - frame);
+			node.read(ctx, frame, samples, 0, count);
+			meter.add(samples, 0, count);
+		}
+		return meter.result();
+	}
+
+	/**
+	 * Measures the next frames of the audio
+	 *
+	 * @param samples the interleaved samples, where full volume is between -1 and 1
+	 * @param offset
+	 * @param count   the number of frames
+	 */
+	void add(float[] samples, int offset, int count) {
+		if (work[0].length < TAPS - 1 + count) {
+			for (int channel = 0; channel < channels; channel++) {
+				float[] bigger = new float[TAPS - 1 + count];
+				System.arraycopy(work[channel], 0, bigger, 0, TAPS - 1);
+				work[channel] = bigger;
+			}
+			energies = new double[count];
+		}
+		Arrays.fill(energies, 0, count, 0);
+
+		for (int channel = 0; channel < channels; channel++) {
+			// take the channel out of the frames, after the last samples of the chunk before
+			float[] x = work[channel];
+			for (int i = 0; i < count; i++) {
+				x[TAPS - 1 + i] = samples[offset + i * channels + channel];
+			}
+
+			measurePeaks(x, count);
+			filter(channel, x, count);
+
+			// keep the last samples for the points between this chunk and the next
+			System.arraycopy(x, count, x, 0, TAPS - 1);
+		}
+
+		// split the filtered energy of the frames into steps of 100 ms
+		int i = 0;
+		while (i < count) {
+			int part = (int) Math.min(count - i, stepFrames - stepFill);
+			double energy = 0;
+			for (int end = i + part; i < end; i++) {
+				energy += energies[i];
+			}
+			stepEnergy += energy;
+			stepFill += part;
+			if (stepFill == stepFrames) {
+				finishStep();
+			}
+		}
+		frames += count;
+	}
+
+	// finds the peak, true peak and sum of squares of one channel of a chunk
+	private void measurePeaks(float[] x, int count) {
+		float peak = this.peak;
+		double squares = 0;
+		for (int i = TAPS - 1; i < TAPS - 1 + count; i++) {
+			float sample = x[i];
+			float level = Math.abs(sample);
+			peak = peak > level ? peak : level;
+			squares += sample * sample;
+		}
+		this.peak = peak;
+		this.squares += squares;
+
+		// each point is between the middle two of the taps that start at a sample
+		float[] shifted = this.shifted;
+		float[] quarter = points[0], half = points[1], threeQuarters = points[2];
+		float[] early = PHASES[0], middle = PHASES[1], late = PHASES[2];
+		for (int start = 0; start < count; start += TRUE_PEAK_BLOCK) {
+			int length = Math.min(count - start, TRUE_PEAK_BLOCK);
+			float most = 0;
+			for (int i = start; i < start + length + TAPS - 1; i++) {
+				float level = Math.abs(x[i]);
+				most = most > level ? most : level;
+			}
+			if (most * PHASE_GAIN <= truePeak) {
+				continue;
+			}
+
+			// the points are worked out a tap at a time, from a copy of the samples under
+			// the tap so every array is read at the same index, which lets the JIT compiler
+			// turn the loops into SIMD instructions
+			Arrays.fill(quarter, 0);
+			Arrays.fill(half, 0);
+			Arrays.fill(threeQuarters, 0);
+			for (int tap = 0; tap < TAPS; tap++) {
+				System.arraycopy(x, start + tap, shifted, 0, length);
+				float a = early[tap], b = middle[tap], c = late[tap];
+				for (int i = 0; i < length; i++) {
+					float sample = shifted[i];
+					quarter[i] += sample * a;
+					half[i] += sample * b;
+					threeQuarters[i] += sample * c;
+				}
+			}
+			float loudest = 0;
+			for (int i = 0; i < length; i++) {
+				float a = Math.abs(quarter[i]), b = Math.abs(half[i]), c = Math.abs(threeQuarters[i]);
+				float level = a > b ? a : b;
+				level = level > c ? level : c;
+				loudest = loudest > level ? loudest : level;
+			}
+			truePeak = Math.max(truePeak, loudest);
+		}
+	}
+
+	// puts one channel of a chunk through the K filter, adding its weighted energy to each frame
+	private void filter(int channel, float[] x, int count) {
+		double weight = weights[channel];
+		if (weight == 0) {
+			return;
+		}
+		double[] s = state[channel];
+		double shelf1 = s[0], shelf2 = s[1], pass1 = s[2], pass2 = s[3];
+		for (int i = 0; i < count; i++) {
+			double in = x[TAPS - 1 + i];
+			double shelved = shelfB0 * in + shelf1;
+			shelf1 = shelfB1 * in - shelfA1 * shelved + shelf2;
+			shelf2 = shelfB2 * in - shelfA2 * shelved;
+			double out = shelved + pass1;
+			pass1 = -2 * shelved - passA1 * out + pass2;
+			pass2 = shelved - passA2 * out;
+			energies[i] += weight * out * out;
+		}
+		s[0] = shelf1;
+		s[1] = shelf2;
+		s[2] = pass1;
+		s[3] = pass2;
+	}
+
+	// adds a full step, and the block that ends with it once there are enough steps
+	private void finishStep() {
+		steps[(int) (stepsDone % STEPS_PER_BLOCK)] = stepEnergy;
+		totalEnergy += stepEnergy;
+		stepsDone++;
+		stepEnergy = 0;
+		stepFill = 0;
+		if (stepsDone >= STEPS_PER_BLOCK) {
+			double energy = 0;
+			for (double step : steps) {
+				energy += step;
+			}
+			addBlock(energy / (STEPS_PER_BLOCK * stepFrames));
+		}
+	}
+
+	private void addBlock(double meanSquare) {
+		double loudness = loudness(meanSquare);
+		if (loudness < ABSOLUTE_GATE) {
+			return;
+		}
+		int bin = (int) Math.min(BINS - 1, (loudness - ABSOLUTE_GATE) * BINS_PER_LU);
+		counts[bin]++;
+		sums[bin] += meanSquare;
+	}
+
+	/**
+	 * returns the levels of all the audio so far
+	 *
+	 * @return Loudness
+	 */
+	Loudness result() {
+		double integrated;
+		if (stepsDone < STEPS_PER_BLOCK) {
+			// audio shorter than a block is one block
+			double meanSquare = frames == 0 ? 0 : (totalEnergy + stepEnergy) / frames;
+			integrated = loudness(meanSquare) < ABSOLUTE_GATE ? Double.NEGATIVE_INFINITY : loudness(meanSquare);
+		} else {
+			integrated = gated();
+		}
+		double rms = frames == 0 ? 0 : Math.sqrt(squares / (frames * channels));
+		return new Loudness(decibels(peak), decibels(Math.max(peak, truePeak)), decibels(rms), integrated);
+	}
+
+	// the loudness of the blocks that are loud enough to count
+	private double gated() {
+		long count = 0;
+		double sum = 0;
+		for (int bin = 0; bin < BINS; bin++) {
+			count += counts[bin];
+			sum += sums[bin];
+		}
+		if (count == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+
+		// leave out the blocks that are much quieter than the rest
+		double gate = loudness(sum / count) + RELATIVE_GATE;
+		double gateSquare = Math.pow(10, (gate + 0.691) / 10);
+		int gateBin = (int) Math.floor((gate - ABSOLUTE_GATE) * BINS_PER_LU);
+		long gatedCount = 0;
+		double gatedSum = 0;
+		for (int bin = Math.max(0, gateBin); bin < BINS; bin++) {
+			// the bin the gate is in only counts if its blocks are mostly above the gate
+			if (bin == gateBin && (counts[bin] == 0 || sums[bin] / counts[bin] <= gateSquare)) {
+				continue;
+			}
+			gatedCount += counts[bin];
+			gatedSum += sums[bin];
+		}
+		return gatedCount == 0 ? Double.NEGATIVE_INFINITY : loudness(gatedSum / gatedCount);
+	}
+
+	private static double loudness(double meanSquare) {
+		return -0.691 + 10 * Math.log10(meanSquare);
+	}
+
+	private static double decibels(double level) {
+		return 20 * Math.log10(level);
+	}
+}
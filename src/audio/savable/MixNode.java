@@ -0,0 +1,34 @@
+package audio.savable;
+
+/**
+ * Two nodes played at the same time. The mix is as long as the base node, the
+ * background node is cut off or padded with silence to fit.
+ *
+ */
+class MixNode extends AudioNode {
+	final AudioNode base;
+	final AudioNode background;
+
+	MixNode(AudioNode base, AudioNode background) {
+		super(base.format, base.frames);
+		this.base = base;
+		this.background = background;
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		base.read(ctx, frame, dst, offset, count);
+
+		// add the part of the background that overlaps these frames
+		int overlap = (int) Math.max(0, Math.min(count, background.frames - frame));
+		if (overlap > 0) {
+			int length = overlap * channels;
+			float[] bkg = ctx.borrow(length);
+			background.read(ctx, frame, bkg, 0, overlap);
+			for (int i = 0; i < length; i++) {
+				dst[offset + i] += bkg[i];
+			}
+			ctx.release();
+		}
+	}
+}
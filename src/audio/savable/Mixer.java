@@ -0,0 +1,136 @@
+package audio.savable;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Mixes any number of audio tracks together so they all play at the same time,
+ * each with its own volume, start time and pan. All of the tracks are mixed in
+ * a single pass when the mix is saved, one small chunk at a time, so mixing
+ * many long tracks does not take more memory than mixing two.
+ *
+ * The mixer keeps the samples of its tracks until it is closed, even if the
+ * tracks themselves are closed. Mixes that were already made keep working
+ * after the mixer is closed.
+ *
+ */
+public class Mixer implements Closeable {
+	private final List<SavableAudio> audio = new ArrayList<SavableAudio>();
+	private final List<double[]> settings = new ArrayList<double[]>();
+
+	/**
+	 * Adds a track that starts at the beginning of the mix at normal volume.
+	 *
+	 * @param track
+	 * @throws IllegalArgumentException if the track is not loaded
+	 */
+	public void add(SavableAudio track) {
+		add(track, 100, 0, 0);
+	}
+
+	/**
+	 * Adds a track to the mix. The volume is a percentage with 100% being
+	 * normal, the start time is in seconds from the beginning of the mix, and
+	 * the pan is from -1 (only the left speaker) to 1 (only the right speaker).
+	 * The track is added as it is now, later changes to it do not change the
+	 * mix.
+	 *
+	 * @param track
+	 * @param volume
+	 * @param startTime
+	 * @param pan
+	 * @throws IllegalArgumentException if the track is not loaded, or the
+	 *                                  numbers do not make sense
+	 */
+	public void add(SavableAudio track, double volume, double startTime, double pan) {
+		// check to see if the track is loaded
+		if (track.node() == null) {
+			throw new IllegalArgumentException("Track not yet loaded, cannot add it to the mix");
+		}
+
+		// check for numbers that do not make sense
+		if (startTime < 0 || volume < 0) {
+			throw new IllegalArgumentException(
+					"Invalid track inputs: start time and volume cannot be negative numbers");
+		}
+		if (pan < -1 || pan > 1) {
+			throw new IllegalArgumentException("Invalid pan: must be between -1 (left) and 1 (right)");
+		}
+
+		audio.add(new SavableAudio(track));
+		settings.add(new double[] { volume / 100, startTime, pan });
+	}
+
+	/**
+	 * returns the number of tracks in the mix
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return audio.size();
+	}
+
+	/**
+	 * Mixes the tracks together. The mix has the sample rate, sample size and
+	 * endian of the first track, is stereo if any track is stereo or panned,
+	 * and lasts until the last track ends. Tracks with a different sample rate
+	 * are resampled to the sample rate of the first track, at the quality set
+	 * on each track with setResampleQuality(). Parts that are too loud are
+	 * clipped when the mix is saved.
+	 *
+	 * @return SavableAudio
+	 * @throws IllegalStateException if no tracks were added
+	 */
+	public SavableAudio mix() {
+		// check to see if there is anything to mix
+		if (audio.isEmpty()) {
+			throw new IllegalStateException("No tracks to mix, add a track first");
+		}
+
+		AudioFormat first = audio.get(0).aisFormat;
+		int channels = 1;
+		for (int i = 0; i < audio.size(); i++) {
+			AudioFormat format = audio.get(i).aisFormat;
+			if (format.getChannels() != 1 || settings.get(i)[2] != 0) {
+				channels = 2;
+			}
+		}
+		int sampleBytes = first.getFrameSize() / first.getChannels();
+		AudioFormat format = new AudioFormat(first.getEncoding(), first.getSampleRate(), first.getSampleSizeInBits(),
+				channels, channels * sampleBytes, first.getSampleRate(), first.isBigEndian());
+
+		// work out where each track starts and how loud each channel is
+		MixerNode.Track[] tracks = new MixerNode.Track[audio.size()];
+		for (int i = 0; i < tracks.length; i++) {
+			double[] track = settings.get(i);
+			long start = (long) (track[1] * format.getSampleRate());
+
+			// bring every track to the sample rate of the mix
+			AudioNode source = audio.get(i).node();
+			source = ResampleNode.of(source, ResampleNode.withRate(source.format, format.getSampleRate()),
+					audio.get(i).resampleQuality());
+			tracks[i] = new MixerNode.Track(source, start, track[0], track[2]);
+		}
+		SavableAudio mix = new SavableAudio(MixerNode.of(format, tracks));
+		for (SavableAudio track : audio) {
+			mix.share(track);
+		}
+		return mix;
+	}
+
+	/**
+	 * Lets go of the tracks, so their samples are freed straight away once
+	 * nothing else (like a mix made from them) uses them. The mixer is empty
+	 * afterwards, and new tracks can be added to it.
+	 */
+	@Override
+	public void close() {
+		for (SavableAudio track : audio) {
+			track.close();
+		}
+		audio.clear();
+		settings.clear();
+	}
+}
@@ -0,0 +1,100 @@
+package audio.savable;
+
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Any number of tracks played at the same time, each with its own gain, start
+ * frame and pan. The mix is as long as the track that ends last.
+ *
+ * Each chunk is worked out in one go: every track that plays during the chunk
+ * is read into the same scratch array and added on top of the others. The
+ * samples are added as floats, so loud parts do not wrap around, and they are
+ * only clipped when the mix is turned back into bytes.
+ *
+ */
+class MixerNode extends AudioNode {
+	final Track[] tracks;
+
+	private MixerNode(AudioFormat format, long frames, Track[] tracks) {
+		super(format, frames);
+		this.tracks = tracks;
+	}
+
+	/**
+	 * Mixes the tracks into the given format, which must be mono or stereo.
+	 * Stereo tracks can only be mixed into a stereo format.
+	 *
+	 * @param format
+	 * @param tracks
+	 * @return AudioNode
+	 */
+	static AudioNode of(AudioFormat format, Track[] tracks) {
+		long frames = 0;
+		for (Track track : tracks) {
+			frames = Math.max(frames, track.start + track.source.frames);
+		}
+		return new MixerNode(format, frames, tracks.clone());
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		Arrays.fill(dst, offset, offset + count * channels, 0);
+
+		for (Track track : tracks) {
+			// find the frames of this chunk that the track plays during
+			long first = Math.max(frame, track.start);
+			long last = Math.min(frame + count, track.start + track.source.frames);
+			if (first >= last) {
+				continue;
+			}
+			int length = (int) (last - first);
+			int out = offset + (int) (first - frame) * channels;
+
+			float[] src = ctx.borrow(length * track.source.channels);
+			track.source.read(ctx, first - track.start, src, 0, length);
+			if (channels == 1) {
+				float gain = track.left;
+				for (int i = 0; i < length; i++) {
+					dst[out + i] += src[i] * gain;
+				}
+			} else if (track.source.channels == 1) {
+				// a mono track is panned between the left and right channels
+				float left = track.left;
+				float right = track.right;
+				for (int i = 0; i < length; i++) {
+					dst[out + 2 * i] += src[i] * left;
+					dst[out + 2 * i + 1] += src[i] * right;
+				}
+			} else {
+				// panning a stereo track turns down the other channel
+				float left = track.left;
+				float right = track.right;
+				for (int i = 0; i < length; i++) {
+					dst[out + 2 * i] += src[2 * i] * left;
+					dst[out + 2 * i + 1] += src[2 * i + 1] * right;
+				}
+			}
+			ctx.release();
+		}
+	}
+
+	/**
+	 * A track in the mix, with the gain of its left and right channels worked
+	 * out from its volume and pan. Mono mixes only use the left gain.
+	 *
+	 */
+	static final class Track {
+		final AudioNode source;
+		final long start;
+		final float left;
+		final float right;
+
+		Track(AudioNode source, long start, double volume, double pan) {
+			this.source = source;
+			this.start = start;
+			this.left = (float) (volume * Math.min(1, 1 - pan));
+			this.right = (float) (volume * Math.min(1, 1 + pan));
+		}
+	}
+}
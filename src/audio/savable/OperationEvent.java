@@ -0,0 +1,43 @@
+package audio.savable;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Describes one SavableAudio operation once it has finished.
+ *
+ * Edits are only worked out when the audio is saved, so for an edit the time
+ * is the time to add it, and the frames are the frames of the edited audio.
+ * For save and getBytes, the frames are the frames that were worked out.
+ *
+ */
+public class OperationEvent {
+	// the name of the method, ex: "fade"
+	public final String name;
+	public final long nanos;
+	public final long frames;
+
+	// the bytes allocated by the thread that called the method, or -1 if the
+	// java virtual machine can not count them
+	public final long allocatedBytes;
+
+	// the format of the audio afterwards, or null if there is no audio
+	public final AudioFormat format;
+
+	// true if the operation reported a problem
+	public final boolean failed;
+
+	OperationEvent(String name, long nanos, long frames, long allocatedBytes, AudioFormat format, boolean failed) {
+		this.name = name;
+		this.nanos = nanos;
+		this.frames = frames;
+		this.allocatedBytes = allocatedBytes;
+		this.format = format;
+		this.failed = failed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %.3f ms, %d frames, %d bytes allocated%s", name, nanos / 1e6, frames, allocatedBytes,
+				failed ? ", failed" : "");
+	}
+}
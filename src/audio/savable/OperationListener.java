@@ -0,0 +1,11 @@
+package audio.savable;
+
+/**
+ * Is told about every SavableAudio operation while metrics are turned on, for
+ * example to log slow operations or to pass them on to a profiler. It is
+ * called on the thread that made the call, so it should return quickly.
+ *
+ */
+public interface OperationListener {
+	void operationFinished(OperationEvent event);
+}
@@ -0,0 +1,524 @@
+package audio.savable;
+
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts between the bytes of a PCM audio stream and decoded samples, where
+ * full volume is between -1 and 1. There is a codec for each sample size and
+ * endian (8, 16, 24 and 32 bit integers and 32 bit floats), and the codec is
+ * picked once for a whole stream, so the loops that convert the samples never
+ * have to check the format.
+ *
+ * The bytes are moved in and out of blocks of samples with bulk buffer
+ * copies, which swap the bytes for the other endian in one go. The loops that
+ * convert the blocks are kept simple (no calls and no branches) so the JIT
+ * compiler can turn them into SIMD instructions.
+ *
+ */
+abstract class PcmCodec {
+	// the samples are converted in blocks that fit easily in the cache
+	static final int BLOCK_SAMPLES = 4096;
+
+	static final PcmCodec SIGNED_8 = new Pcm8(false);
+	static final PcmCodec UNSIGNED_8 = new Pcm8(true);
+	static final PcmCodec LITTLE_ENDIAN = new Pcm16(ByteOrder.LITTLE_ENDIAN);
+	static final PcmCodec BIG_ENDIAN = new Pcm16(ByteOrder.BIG_ENDIAN);
+	static final PcmCodec LITTLE_ENDIAN_24 = new Pcm24(ByteOrder.LITTLE_ENDIAN);
+	static final PcmCodec BIG_ENDIAN_24 = new Pcm24(ByteOrder.BIG_ENDIAN);
+	static final PcmCodec LITTLE_ENDIAN_32 = new Pcm32(ByteOrder.LITTLE_ENDIAN);
+	static final PcmCodec BIG_ENDIAN_32 = new Pcm32(ByteOrder.BIG_ENDIAN);
+	static final PcmCodec LITTLE_ENDIAN_FLOAT = new Float32(ByteOrder.LITTLE_ENDIAN);
+	static final PcmCodec BIG_ENDIAN_FLOAT = new Float32(ByteOrder.BIG_ENDIAN);
+
+	final ByteOrder order;
+	final int sampleBytes;
+
+	// the bytes of each item in the view returned by typed()
+	private final int viewBytes;
+
+	private PcmCodec(ByteOrder order, int sampleBytes, int viewBytes) {
+		this.order = order;
+		this.sampleBytes = sampleBytes;
+		this.viewBytes = viewBytes;
+	}
+
+	/**
+	 * returns the codec that matches the encoding, sample size and endian of the
+	 * given format, or null if the format is not supported
+	 *
+	 * @param format
+	 * @return PcmCodec
+	 */
+	static PcmCodec forFormat(AudioFormat format) {
+		AudioFormat.Encoding encoding = format.getEncoding();
+		boolean bigEndian = format.isBigEndian();
+		int bits = format.getSampleSizeInBits();
+
+		if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT)) {
+			if (bits == 32) {
+				return bigEndian ? BIG_ENDIAN_FLOAT : LITTLE_ENDIAN_FLOAT;
+			}
+		} else if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+			if (bits == 8) {
+				return UNSIGNED_8;
+			}
+		} else if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+			switch (bits) {
+			case 8:
+				return SIGNED_8;
+			case 16:
+				return bigEndian ? BIG_ENDIAN : LITTLE_ENDIAN;
+			case 24:
+				return bigEndian ? BIG_ENDIAN_24 : LITTLE_ENDIAN_24;
+			case 32:
+				return bigEndian ? BIG_ENDIAN_32 : LITTLE_ENDIAN_32;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * returns true if there is a codec for the format
+	 *
+	 * @param format
+	 * @return boolean
+	 */
+	static boolean isSupported(AudioFormat format) {
+		return forFormat(format) != null;
+	}
+
+	/**
+	 * Decodes a number of samples from a byte array into a float array, where
+	 * full volume is between -1 and 1
+	 *
+	 * @param src
+	 * @param srcOffset
+	 * @param dst
+	 * @param dstOffset
+	 * @param samples
+	 */
+	void decode(byte[] src, int srcOffset, float[] dst, int dstOffset, int samples) {
+		decode(view(src, null, srcOffset, samples), dst, dstOffset, samples);
+	}
+
+	/**
+	 * Decodes a number of samples straight out of a byte buffer (such as a
+	 * mapped file) into a float array
+	 *
+	 * @param src
+	 * @param srcIndex  the byte index of the first sample
+	 * @param dst
+	 * @param dstOffset
+	 * @param samples
+	 */
+	void decode(ByteBuffer src, int srcIndex, float[] dst, int dstOffset, int samples) {
+		decode(view(src, src, srcIndex, samples), dst, dstOffset, samples);
+	}
+
+	/**
+	 * Encodes a number of samples from a float array (where full volume is
+	 * between -1 and 1) into a byte array. Integer samples that are too loud are
+	 * clipped instead of wrapping around.
+	 *
+	 * @param src
+	 * @param srcOffset
+	 * @param dst
+	 * @param dstOffset
+	 * @param samples
+	 */
+	void encode(float[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+		encode(src, srcOffset, view(dst, null, dstOffset, samples), samples);
+	}
+
+	/**
+	 * Encodes a number of samples from a float array straight into a byte
+	 * buffer (such as a mapped file)
+	 *
+	 * @param src
+	 * @param srcOffset
+	 * @param dst
+	 * @param dstIndex  the byte index of the first sample
+	 * @param samples
+	 */
+	void encode(float[] src, int srcOffset, ByteBuffer dst, int dstIndex, int samples) {
+		encode(src, srcOffset, view(dst, dst, dstIndex, samples), samples);
+	}
+
+	/**
+	 * Decodes samples out of a view made by typed(), which is positioned at the
+	 * first sample
+	 *
+	 * @param in
+	 * @param dst
+	 * @param dstOffset
+	 * @param samples
+	 */
+	abstract void decode(Buffer in, float[] dst, int dstOffset, int samples);
+
+	/**
+	 * Encodes samples into a view made by typed(), which is positioned where
+	 * the first sample goes
+	 *
+	 * @param src
+	 * @param srcOffset
+	 * @param out
+	 * @param samples
+	 */
+	abstract void encode(float[] src, int srcOffset, Buffer out, int samples);
+
+	/**
+	 * returns a view of the bytes that holds whatever this codec copies its
+	 * blocks in and out of, such as shorts for 16 bit samples
+	 *
+	 * @param bytes in the order of this codec
+	 * @return Buffer
+	 */
+	abstract Buffer typed(ByteBuffer bytes);
+
+	// a view of the bytes in the array or buffer, positioned over the samples.
+	// The samples always start on a whole sample, so they line up with the view.
+	private Buffer view(Object key, ByteBuffer buffer, int index, int samples) {
+		Views views = Views.get();
+		Buffer view = views.find(key, this);
+		if (view == null) {
+			if (buffer == null) {
+				buffer = ByteBuffer.wrap((byte[]) key);
+			}
+			ByteBuffer bytes = buffer.duplicate();
+			bytes.clear();
+			view = typed(bytes.order(order));
+			views.add(key, this, view);
+		}
+		view.clear();
+		view.position(index / viewBytes);
+		view.limit((index + samples * sampleBytes) / viewBytes);
+		return view;
+	}
+
+	/**
+	 * The views of the arrays and buffers a thread used last. Audio is read and
+	 * written one chunk after another from the same few buffers, so keeping
+	 * their views means no new objects are made for each chunk. The views are
+	 * only weakly held, so they never stop a buffer from being freed.
+	 *
+	 */
+	private static final class Views {
+		private static final int SLOTS = 8;
+		private static final ThreadLocal<WeakReference<Views>> VIEWS = new ThreadLocal<WeakReference<Views>>();
+
+		private final Object[] keys = new Object[SLOTS];
+		private final PcmCodec[] codecs = new PcmCodec[SLOTS];
+		private final Buffer[] views = new Buffer[SLOTS];
+		private int next = 0;
+
+		static Views get() {
+			WeakReference<Views> reference = VIEWS.get();
+			Views views = reference == null ? null : reference.get();
+			if (views == null) {
+				views = new Views();
+				VIEWS.set(new WeakReference<Views>(views));
+			}
+			return views;
+		}
+
+		Buffer find(Object key, PcmCodec codec) {
+			for (int i = 0; i < SLOTS; i++) {
+				if (keys[i] == key && codecs[i] == codec) {
+					return views[i];
+				}
+			}
+			return null;
+		}
+
+		// replaces the view that was added longest ago
+		void add(Object key, PcmCodec codec, Buffer view) {
+			keys[next] = key;
+			codecs[next] = codec;
+			views[next] = view;
+			next = (next + 1) % SLOTS;
+		}
+	}
+
+	/**
+	 * 8 bit samples, which are unsigned in .wav files and signed in others. An
+	 * unsigned byte becomes signed by flipping its top bit.
+	 *
+	 */
+	private static final class Pcm8 extends PcmCodec {
+		private static final float SCALE = 1f / 128f;
+		private static final ThreadLocal<byte[]> BLOCKS = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[BLOCK_SAMPLES];
+			}
+		};
+
+		private final int flip;
+
+		Pcm8(boolean unsigned) {
+			super(ByteOrder.LITTLE_ENDIAN, 1, 1);
+			this.flip = unsigned ? 0x80 : 0;
+		}
+
+		@Override
+		Buffer typed(ByteBuffer bytes) {
+			return bytes;
+		}
+
+		@Override
+		void decode(Buffer buffer, float[] dst, int dstOffset, int samples) {
+			ByteBuffer in = (ByteBuffer) buffer;
+			byte[] block = BLOCKS.get();
+			int flip = this.flip;
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				in.get(block, 0, count);
+				int out = dstOffset + done;
+				for (int i = 0; i < count; i++) {
+					dst[out + i] = (byte) (block[i] ^ flip) * SCALE;
+				}
+			}
+		}
+
+		@Override
+		void encode(float[] src, int srcOffset, Buffer buffer, int samples) {
+			ByteBuffer out = (ByteBuffer) buffer;
+			byte[] block = BLOCKS.get();
+			int flip = this.flip;
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				int in = srcOffset + done;
+				for (int i = 0; i < count; i++) {
+					float scaled = src[in + i] * 128f;
+					scaled = scaled > 127f ? 127f : scaled;
+					scaled = scaled < -128f ? -128f : scaled;
+					block[i] = (byte) ((int) (scaled + (scaled < 0 ? -0.5f : 0.5f)) ^ flip);
+				}
+				out.put(block, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * 16 bit samples, the most common format
+	 *
+	 */
+	private static final class Pcm16 extends PcmCodec {
+		private static final float SCALE = 1f / 32768f;
+
+		// adding a short to the bits of 2^23 + 2^22 gives that float plus the short,
+		// which turns it into a float without the slow int to float conversion
+		private static final float MAGIC = 12582912f;
+		private static final int MAGIC_BITS = 0x4B400000;
+
+		private static final ThreadLocal<short[]> BLOCKS = new ThreadLocal<short[]>() {
+			@Override
+			protected short[] initialValue() {
+				return new short[BLOCK_SAMPLES];
+			}
+		};
+
+		Pcm16(ByteOrder order) {
+			super(order, 2, 2);
+		}
+
+		@Override
+		Buffer typed(ByteBuffer bytes) {
+			return bytes.asShortBuffer();
+		}
+
+		@Override
+		void decode(Buffer buffer, float[] dst, int dstOffset, int samples) {
+			ShortBuffer in = (ShortBuffer) buffer;
+			short[] block = BLOCKS.get();
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				in.get(block, 0, count);
+				int out = dstOffset + done;
+				for (int i = 0; i < count; i++) {
+					dst[out + i] = (Float.intBitsToFloat(MAGIC_BITS + block[i]) - MAGIC) * SCALE;
+				}
+			}
+		}
+
+		// clips each sample to the 16 bit range, then rounds it to the nearest value
+		@Override
+		void encode(float[] src, int srcOffset, Buffer buffer, int samples) {
+			ShortBuffer out = (ShortBuffer) buffer;
+			short[] block = BLOCKS.get();
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				int in = srcOffset + done;
+				for (int i = 0; i < count; i++) {
+					float scaled = src[in + i] * 32768f;
+					scaled = scaled > 32767f ? 32767f : scaled;
+					scaled = scaled < -32768f ? -32768f : scaled;
+					block[i] = (short) (int) (scaled + (scaled < 0 ? -0.5f : 0.5f));
+				}
+				out.put(block, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * 24 bit samples, which are 3 bytes each. There is no buffer view for 3
+	 * byte numbers, so the bytes are copied into a block and put together using
+	 * the positions of the low and high bytes for the endian.
+	 *
+	 */
+	private static final class Pcm24 extends PcmCodec {
+		private static final float SCALE = 1f / 8388608f;
+		private static final ThreadLocal<byte[]> BLOCKS = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[BLOCK_SAMPLES * 3];
+			}
+		};
+
+		private final int low;
+		private final int high;
+
+		Pcm24(ByteOrder order) {
+			super(order, 3, 1);
+			this.low = order == ByteOrder.LITTLE_ENDIAN ? 0 : 2;
+			this.high = 2 - low;
+		}
+
+		@Override
+		Buffer typed(ByteBuffer bytes) {
+			return bytes;
+		}
+
+		@Override
+		void decode(Buffer buffer, float[] dst, int dstOffset, int samples) {
+			ByteBuffer in = (ByteBuffer) buffer;
+			byte[] block = BLOCKS.get();
+			int low = this.low;
+			int high = this.high;
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				in.get(block, 0, count * 3);
+				int out = dstOffset + done;
+				for (int i = 0; i < count; i++) {
+					int j = 3 * i;
+					int sample = (block[j + low] & 0xff) | (block[j + 1] & 0xff) << 8 | block[j + high] << 16;
+					dst[out + i] = sample * SCALE;
+				}
+			}
+		}
+
+		@Override
+		void encode(float[] src, int srcOffset, Buffer buffer, int samples) {
+			ByteBuffer out = (ByteBuffer) buffer;
+			byte[] block = BLOCKS.get();
+			int low = this.low;
+			int high = this.high;
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				int in = srcOffset + done;
+				for (int i = 0; i < count; i++) {
+					float scaled = src[in + i] * 8388608f;
+					scaled = scaled > 8388607f ? 8388607f : scaled;
+					scaled = scaled < -8388608f ? -8388608f : scaled;
+					int sample = (int) (scaled + (scaled < 0 ? -0.5f : 0.5f));
+					int j = 3 * i;
+					block[j + low] = (byte) sample;
+					block[j + 1] = (byte) (sample >> 8);
+					block[j + high] = (byte) (sample >> 16);
+				}
+				out.put(block, 0, count * 3);
+			}
+		}
+	}
+
+	/**
+	 * 32 bit integer samples. A float only holds 24 bits of the sample, which is
+	 * still more than the ears can hear.
+	 *
+	 */
+	private static final class Pcm32 extends PcmCodec {
+		private static final float SCALE = 1f / 2147483648f;
+		private static final ThreadLocal<int[]> BLOCKS = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[BLOCK_SAMPLES];
+			}
+		};
+
+		Pcm32(ByteOrder order) {
+			super(order, 4, 4);
+		}
+
+		@Override
+		Buffer typed(ByteBuffer bytes) {
+			return bytes.asIntBuffer();
+		}
+
+		@Override
+		void decode(Buffer buffer, float[] dst, int dstOffset, int samples) {
+			IntBuffer in = (IntBuffer) buffer;
+			int[] block = BLOCKS.get();
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				in.get(block, 0, count);
+				int out = dstOffset + done;
+				for (int i = 0; i < count; i++) {
+					dst[out + i] = block[i] * SCALE;
+				}
+			}
+		}
+
+		// a float that is too big for an int is turned into the biggest int, so the
+		// samples clip without having to be checked
+		@Override
+		void encode(float[] src, int srcOffset, Buffer buffer, int samples) {
+			IntBuffer out = (IntBuffer) buffer;
+			int[] block = BLOCKS.get();
+			for (int done = 0; done < samples; done += BLOCK_SAMPLES) {
+				int count = Math.min(BLOCK_SAMPLES, samples - done);
+				int in = srcOffset + done;
+				for (int i = 0; i < count; i++) {
+					float scaled = src[in + i] * 2147483648f;
+					block[i] = (int) (scaled + (scaled < 0 ? -0.5f : 0.5f));
+				}
+				out.put(block, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * 32 bit float samples, which are already between -1 and 1, so they are
+	 * copied straight in and out. Float samples are not clipped, so loud parts
+	 * can still be turned down later.
+	 *
+	 */
+	private static final class Float32 extends PcmCodec {
+		Float32(ByteOrder order) {
+			super(order, 4, 4);
+		}
+
+		@Override
+		Buffer typed(ByteBuffer bytes) {
+			return bytes.asFloatBuffer();
+		}
+
+		@Override
+		void decode(Buffer buffer, float[] dst, int dstOffset, int samples) {
+			FloatBuffer in = (FloatBuffer) buffer;
+			in.get(dst, dstOffset, samples);
+		}
+
+		@Override
+		void encode(float[] src, int srcOffset, Buffer buffer, int samples) {
+			FloatBuffer out = (FloatBuffer) buffer;
+			out.put(src, srcOffset, samples);
+		}
+	}
+}
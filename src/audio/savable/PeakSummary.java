@@ -0,0 +1,97 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * Adds up the smallest sample, the biggest sample and the sum of the squares
+ * of the samples of each channel, over any number of frames. The samples can
+ * be added one at a time or a whole block of a waveform index at once.
+ *
+ */
+class PeakSummary {
+	final int channels;
+	final float[] min;
+	final float[] max;
+	final double[] squares;
+	long frames;
+
+	PeakSummary(int channels) {
+		this.channels = channels;
+		this.min = new float[channels];
+		this.max = new float[channels];
+		this.squares = new double[channels];
+		clear();
+	}
+
+	/**
+	 * Forgets everything that was added
+	 */
+	void clear() {
+		Arrays.fill(min, Float.POSITIVE_INFINITY);
+		Arrays.fill(max, Float.NEGATIVE_INFINITY);
+		Arrays.fill(squares, 0);
+		frames = 0;
+	}
+
+	/**
+	 * Adds a number of frames of interleaved samples, multiplied by a gain
+	 *
+	 * @param samples
+	 * @param count
+	 * @param gain
+	 */
+	void add(float[] samples, int count, float gain) {
+		for (int channel = 0; channel < channels; channel++) {
+			float low = min[channel];
+			float high = max[channel];
+			double sum = 0;
+			for (int i = channel; i < count * channels; i += channels) {
+				float sample = samples[i] * gain;
+				low = sample < low ? sample : low;
+				high = sample > high ? sample : high;
+				sum += sample * sample;
+			}
+			min[channel] = low;
+			max[channel] = high;
+			squares[channel] += sum;
+		}
+		frames += count;
+	}
+
+	/**
+	 * Adds a block of a waveform index, multiplied by a gain
+	 *
+	 * @param mins    the smallest samples of the blocks of a level
+	 * @param maxes   the biggest samples of the blocks of a level
+	 * @param sums    the sums of the squares of the blocks of a level
+	 * @param block
+	 * @param count   the frames in the block
+	 * @param gain
+	 */
+	void add(float[] mins, float[] maxes, float[] sums, int block, long count, float gain) {
+		for (int channel = 0; channel < channels; channel++) {
+			int i = block * channels + channel;
+
+			// a gain below zero turns the samples upside down
+			float low = (gain < 0 ? maxes[i] : mins[i]) * gain;
+			float high = (gain < 0 ? mins[i] : maxes[i]) * gain;
+			min[channel] = Math.min(min[channel], low);
+			max[channel] = Math.max(max[channel], high);
+			squares[channel] += sums[i] * (double) gain * gain;
+		}
+		frames += count;
+	}
+
+	/**
+	 * Adds silence
+	 *
+	 * @param count
+	 */
+	void addSilence(long count) {
+		for (int channel = 0; channel < channels; channel++) {
+			min[channel] = Math.min(min[channel], 0);
+			max[channel] = Math.max(max[channel], 0);
+		}
+		frames += count;
+	}
+}
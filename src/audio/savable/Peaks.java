@@ -0,0 +1,31 @@
+package audio.savable;
+
+/**
+ * The peaks of a stretch of audio, split into a number of pixels for drawing
+ * it. For each channel and each pixel there is the lowest and the highest
+ * sample (between -1 and 1) and the rms, which is how loud the audio sounds
+ * over the pixel.
+ *
+ */
+public class Peaks {
+	public final int channels;
+	public final int pixels;
+	public final float[][] min;
+	public final float[][] max;
+	public final float[][] rms;
+
+	/**
+	 * Makes empty peaks, which can be filled again and again by
+	 * Waveform.getPeaks() without making new arrays
+	 *
+	 * @param channels
+	 * @param pixels
+	 */
+	public Peaks(int channels, int pixels) {
+		this.channels = channels;
+		this.pixels = pixels;
+		min = new float[channels][pixels];
+		max = new float[channels][pixels];
+		rms = new float[channels][pixels];
+	}
+}
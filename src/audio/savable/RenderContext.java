@@ -0,0 +1,57 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * Holds the temporary arrays that nodes need while they are read, so reading
+ * one chunk after another does not allocate new arrays each time. A context
+ * must only be used by one thread at a time.
+ *
+ */
+class RenderContext {
+	private float[][] scratch = new float[4][];
+	private int depth = 0;
+	private double[] gains = new double[0];
+
+	/**
+	 * Borrows an array that holds at least the given number of samples. Every
+	 * borrowed array has to be given back with release(), in the opposite order
+	 * to how they were borrowed.
+	 *
+	 * @param samples
+	 * @return floatArray
+	 */
+	float[] borrow(int samples) {
+		if (depth == scratch.length) {
+			scratch = Arrays.copyOf(scratch, depth * 2);
+		}
+		float[] array = scratch[depth];
+		if (array == null || array.length < samples) {
+			array = new float[samples];
+			scratch[depth] = array;
+		}
+		depth++;
+		return array;
+	}
+
+	/**
+	 * Gives back the last array that was borrowed
+	 */
+	void release() {
+		depth--;
+	}
+
+	/**
+	 * Returns an array for working out the gain of each sample. There is only
+	 * one of these, since no other node is read while the gains are used.
+	 *
+	 * @param samples
+	 * @return doubleArray
+	 */
+	double[] gains(int samples) {
+		if (gains.length < samples) {
+			gains = new double[samples];
+		}
+		return gains;
+	}
+}
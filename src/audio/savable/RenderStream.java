@@ -0,0 +1,87 @@
+package audio.savable;
+
+import java.io.InputStream;
+
+/**
+ * An input stream that reads the samples of a node one chunk at a time and
+ * encodes them into bytes. Only one chunk of the audio is held in memory at a
+ * time, no matter how long the audio is.
+ *
+ */
+class RenderStream extends InputStream {
+	// size of the chunks that are worked out and encoded at once
+	static final int CHUNK_BYTES = 64 * 1024;
+
+	private final AudioNode node;
+	private final PcmCodec codec;
+	private final int frameSize;
+	private final int chunkFrames;
+	private RenderContext ctx;
+	private float[] samples;
+	private byte[] chunk;
+	private int chunkPos = 0;
+	private int chunkEnd = 0;
+	private long nextFrame = 0;
+
+	RenderStream(AudioNode node) {
+		this.node = node;
+		this.codec = PcmCodec.forFormat(node.format);
+		this.frameSize = node.format.getFrameSize();
+
+		this.chunkFrames = Math.max(1, CHUNK_BYTES / frameSize);
+	}
+
+	// works out the next chunk of frames, returns false once all have been read
+	private boolean fill() {
+		if (nextFrame >= node.frames) {
+			return false;
+		}
+
+		// the arrays are only made once the stream is read, since a new stream is made
+		// after every edit
+		if (ctx == null) {
+			ctx = new RenderContext();
+			samples = new float[chunkFrames * node.channels];
+			chunk = new byte[chunkFrames * frameSize];
+		}
+
+		int count = (int) Math.min(chunkFrames, node.frames - nextFrame);
+		node.read(ctx, nextFrame, samples, 0, count);
+		codec.encode(samples, 0, chunk, 0, count * node.channels);
+		nextFrame += count;
+		chunkPos = 0;
+		chunkEnd = count * frameSize;
+		return true;
+	}
+
+	@Override
+	public int read() {
+		if (chunkPos == chunkEnd && !fill()) {
+			return -1;
+		}
+		return chunk[chunkPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int total = 0;
+		while (total < len) {
+			if (chunkPos == chunkEnd && !fill()) {
+				break;
+			}
+			int count = Math.min(len - total, chunkEnd - chunkPos);
+			System.arraycopy(chunk, chunkPos, b, off + total, count);
+			chunkPos += count;
+			total += count;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, (chunkEnd - chunkPos) + (node.frames - nextFrame) * frameSize);
+	}
+}
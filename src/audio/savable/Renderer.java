@@ -0,0 +1,113 @@
+package audio.savable;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Works out the samples of a node over a range of frames and hands them to a
+ * sink one chunk at a time. The range can either be worked out on the calling
+ * thread, or split into parts that are worked out at the same time on a fork
+ * join pool.
+ *
+ * Every node works out a frame the same way no matter which chunk it is read
+ * in, so both ways give exactly the same samples.
+ *
+ */
+class Renderer {
+	// the number of frames below which a range is not split any further
+	static final int DEFAULT_SPLIT_FRAMES = 1 << 18;
+
+	static final Renderer SEQUENTIAL = new Renderer(null, Integer.MAX_VALUE);
+
+	final ForkJoinPool pool;
+	final int splitFrames;
+
+	Renderer(ForkJoinPool pool, int splitFrames) {
+		this.pool = pool;
+		this.splitFrames = Math.max(1, splitFrames);
+	}
+
+	/**
+	 * Receives the worked out samples. When rendering in parallel, the sink is
+	 * called from many threads at once, but never twice for the same frames.
+	 *
+	 */
+	interface Sink {
+		void write(long frame, float[] samples, int count);
+	}
+
+	/**
+	 * Works out a range of frames of a node and hands them to the sink. It only
+	 * returns, or throws, once every part has stopped writing into the sink.
+	 *
+	 * @param node
+	 * @param start the first frame
+	 * @param frames the number of frames
+	 * @param sink
+	 */
+	void render(AudioNode node, long start, long frames, Sink sink) {
+		if (pool == null || frames <= splitFrames) {
+			renderRange(node, start, frames, sink);
+		} else {
+			pool.invoke(new Task(node, start, frames, sink));
+		}
+	}
+
+	// works out a range of frames on this thread, one chunk at a time
+	private static void renderRange(AudioNode node, long start, long frames, Sink sink) {
+		int chunkFrames = chunkFrames(node);
+		RenderContext ctx = new RenderContext();
+		float[] samples = new float[chunkFrames * node.channels];
+		for (long done = 0; done < frames; done += chunkFrames) {
+			int count = (int) Math.min(chunkFrames, frames - done);
+			node.read(ctx, start + done, samples, 0, count);
+			sink.write(start + done, samples, count);
+		}
+	}
+
+	// the number of frames that make up one 64 KB chunk of encoded audio
+	static int chunkFrames(AudioNode node) {
+		return Math.max(1, RenderStream.CHUNK_BYTES / node.format.getFrameSize());
+	}
+
+	private final class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final AudioNode node;
+		private final long start;
+		private final long frames;
+		private final Sink sink;
+
+		Task(AudioNode node, long start, long frames, Sink sink) {
+			this.node = node;
+			this.start = start;
+			this.frames = frames;
+			this.sink = sink;
+		}
+
+		@Override
+		protected void compute() {
+			// a single chunk can not be split any further
+			int chunkFrames = chunkFrames(node);
+			if (frames <= splitFrames || frames <= chunkFrames) {
+				renderRange(node, start, frames, sink);
+				return;
+			}
+
+			// split in half, on a chunk boundary so the chunks are the same as when
+			// rendering on one thread
+			long half = Math.max(chunkFrames, frames / 2 / chunkFrames * chunkFrames);
+			Task first = new Task(node, start, half, sink);
+			Task second = new Task(node, start + half, frames - half, sink);
+			second.fork();
+			try {
+				first.invoke();
+			} finally {
+				// wait for the other half even if this half failed, so nothing is
+				// still writing into the sink once render returns
+				second.quietlyJoin();
+			}
+			second.join();
+		}
+	}
+}
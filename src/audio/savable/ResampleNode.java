@@ -0,0 +1,243 @@
+package audio.savable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Changes the sample rate of a node with a polyphase windowed sinc filter.
+ *
+ * The output rate over the input rate is kept as a fraction up / down, so the
+ * position of every output frame in the source is exact. Each output frame is
+ * worked out from the source frames around it, weighted by one row of a table
+ * of filter coefficients that is worked out once for each ratio and quality.
+ * When the ratio needs more rows than the table has, the frame is worked out
+ * from the two nearest rows and blended between them.
+ *
+ * Every output frame only depends on where it is, so the audio comes out the
+ * same however it is split into chunks.
+ *
+ */
+class ResampleNode extends AudioNode {
+	static final int FAST = 0;
+	static final int GOOD = 1;
+	static final int BEST = 2;
+
+	// for each quality: the zero crossings on each side of the filter, the
+	// kaiser window shape, and how much of the band below the lower nyquist is kept
+	private static final int[] ZERO_CROSSINGS = { 8, 16, 32 };
+	private static final double[] BETAS = { 6, 8.6, 12 };
+	private static final double[] ROLLOFFS = { 0.85, 0.92, 0.96 };
+
+	// the most rows in a table, ratios that need more are blended between rows
+	static final int MAX_PHASES = 1024;
+
+	// tables that were already worked out, they are never changed so they are shared
+	private static final Map<String, Filter> FILTERS = new HashMap<String, Filter>();
+
+	final AudioNode source;
+	final long up;
+	final long down;
+	private final Filter filter;
+
+	private ResampleNode(AudioNode source, AudioFormat format, long up, long down, Filter filter) {
+		super(format, source.frames * up / down);
+		this.source = source;
+		this.up = up;
+		this.down = down;
+		this.filter = filter;
+	}
+
+	/**
+	 * Changes a node to the sample rate of the given format. A node that
+	 * already has that rate is only given the new format.
+	 *
+	 * @param source
+	 * @param format
+	 * @param quality FAST, GOOD or BEST
+	 * @return AudioNode
+	 */
+	static AudioNode of(AudioNode source, AudioFormat format, int quality) {
+		long from = Math.round(source.format.getSampleRate());
+		long to = Math.round(format.getSampleRate());
+		if (from == to) {
+			return FormatNode.of(source, format);
+		}
+		long gcd = gcd(from, to);
+		long up = to / gcd;
+		long down = from / gcd;
+		return new ResampleNode(source, format, up, down, filter(up, down, quality));
+	}
+
+	/**
+	 * returns the format with a different sample rate
+	 *
+	 * @param format
+	 * @param sampleRate
+	 * @return AudioFormat
+	 */
+	static AudioFormat withRate(AudioFormat format, float sampleRate) {
+		return new AudioFormat(format.getEncoding(), sampleRate, format.getSampleSizeInBits(), format.getChannels(),
+				format.getFrameSize(), sampleRate, format.isBigEndian());
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		int taps = filter.taps;
+		int width = 2 * taps;
+		int phases = filter.phases;
+		float[] table = filter.table;
+
+		// read every source frame the chunk needs, which is the frames around the
+		// first and last positions
+		long index = frame * down / up;
+		long remainder = frame * down - index * up;
+		long first = index - taps + 1;
+		long last = (frame + count - 1) * down / up + taps;
+		int length = (int) (last - first + 1);
+		float[] src = ctx.borrow(length * channels);
+		readPadded(ctx, first, src, length);
+
+		for (int i = 0; i < count; i++) {
+			int start = (int) (index - taps + 1 - first) * channels;
+			int out = offset + i * channels;
+			if (phases == up) {
+				// the position falls exactly on a row of the table
+				int row = (int) remainder * width;
+				for (int channel = 0; channel < channels; channel++) {
+					float sum = 0;
+					for (int k = 0; k < width; k++) {
+						sum += src[start + k * channels + channel] * table[row + k];
+					}
+					dst[out + channel] = sum;
+				}
+			} else {
+				// blend the two rows on either side of the position
+				double phase = remainder * (double) phases / up;
+				int row = (int) phase;
+				float blend = (float) (phase - row);
+				row *= width;
+				for (int channel = 0; channel < channels; channel++) {
+					float sum = 0;
+					float next = 0;
+					for (int k = 0; k < width; k++) {
+						float sample = src[start + k * channels + channel];
+						sum += sample * table[row + k];
+						next += sample * table[row + width + k];
+					}
+					dst[out + channel] = sum + (next - sum) * blend;
+				}
+			}
+
+			// move on to the position of the next frame
+			remainder += down;
+			index += remainder / up;
+			remainder %= up;
+		}
+		ctx.release();
+	}
+
+	// reads source frames into the array, with silence before and after the source
+	private void readPadded(RenderContext ctx, long first, float[] src, int length) {
+		long from = Math.max(first, 0);
+		long to = Math.min(first + length, source.frames);
+		if (from >= to) {
+			Arrays.fill(src, 0, length * channels, 0);
+			return;
+		}
+		int before = (int) (from - first) * channels;
+		int after = (int) (to - first) * channels;
+		Arrays.fill(src, 0, before, 0);
+		source.read(ctx, from, src, before, (int) (to - from));
+		Arrays.fill(src, after, length * channels, 0);
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	// finds the table for a ratio and quality, working it out the first time
+	private static synchronized Filter filter(long up, long down, int quality) {
+		String key = up + "/" + down + "/" + quality;
+		Filter filter = FILTERS.get(key);
+		if (filter == null) {
+			// only a few ratios are used at once, so old tables are just forgotten
+			if (FILTERS.size() >= 32) {
+				FILTERS.clear();
+			}
+			filter = new Filter(up, down, quality);
+			FILTERS.put(key, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * The coefficients of a filter, one row for each fraction of a frame that
+	 * an output frame can fall at. Row p is for outputs p / phases of a frame
+	 * after a source frame, and there is one extra row at the end so positions
+	 * can be blended with the row after them.
+	 *
+	 */
+	static final class Filter {
+		final int taps;
+		final int phases;
+		final float[] table;
+
+		Filter(long up, long down, int quality) {
+			// when the rate goes down, the filter also has to remove what is above
+			// the new nyquist, which makes it wider
+			double cutoff = ROLLOFFS[quality] * Math.min(1, up / (double) down);
+			double beta = BETAS[quality];
+			taps = (int) Math.ceil(ZERO_CROSSINGS[quality] / cutoff);
+			phases = (int) Math.min(up, MAX_PHASES);
+
+			int width = 2 * taps;
+			table = new float[(phases + 1) * width];
+			double window = bessel(beta);
+			for (int p = 0; p <= phases; p++) {
+				double shift = p / (double) phases;
+				double[] row = new double[width];
+				double sum = 0;
+				for (int k = 0; k < width; k++) {
+					double x = k - taps + 1 - shift;
+					double t = x / taps;
+					double kaiser = t * t >= 1 ? 0 : bessel(beta * Math.sqrt(1 - t * t)) / window;
+					row[k] = cutoff * sinc(cutoff * x) * kaiser;
+					sum += row[k];
+				}
+
+				// every row adds up to 1, so steady sounds keep their volume
+				for (int k = 0; k < width; k++) {
+					table[p * width + k] = (float) (row[k] / sum);
+				}
+			}
+		}
+
+		private static double sinc(double x) {
+			if (x == 0) {
+				return 1;
+			}
+			return Math.sin(Math.PI * x) / (Math.PI * x);
+		}
+
+		// the zeroth order modified bessel function, which shapes the kaiser window
+		private static double bessel(double x) {
+			double sum = 1;
+			double term = 1;
+			for (int k = 1; k < 50; k++) {
+				term *= (x / (2 * k)) * (x / (2 * k));
+				sum += term;
+				if (term < sum * 1e-12) {
+					break;
+				}
+			}
+			return sum;
+		}
+	}
+}
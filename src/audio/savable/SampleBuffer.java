@@ -0,0 +1,415 @@
+package audio.savable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Holds the samples of an audio clip in the same bytes as the file they came
+ * from, with the channels interleaved one frame after the other. The bytes are
+ * decoded by the codec for their format each time they are read, which is
+ * about as fast as copying them, so a clip only takes as much memory as its
+ * file whatever its format.
+ *
+ * A buffer can not be bigger than 2 GB, so the bytes are kept in a number of
+ * windows that each hold a whole number of frames. The windows can be arrays
+ * on the java heap, memory off the heap, or a file that is mapped into memory.
+ * Big clips are kept off the heap, so they do not make the garbage collector
+ * copy them around or pause to find room for them.
+ *
+ * A SampleBuffer is never changed after it is made, so it can be shared by
+ * any number of edit graphs. Each SavableAudio that uses a buffer (and the
+ * clip cache) counts itself as a user, and when the last user lets go the
+ * memory off the heap is freed straight away, instead of whenever the garbage
+ * collector gets to it. Reads that are still going on when the last user
+ * lets go (like an AudioReader on another thread) are finished first, and the
+ * memory is freed as the last of them ends.
+ *
+ */
+class SampleBuffer {
+	// size of the chunks used when reading the bytes of the audio
+	static final int CHUNK_BYTES = 64 * 1024;
+
+	// the most bytes held by one window
+	static final long WINDOW_BYTES = 1L << 30;
+
+	// the most bytes that can be put into a single java array
+	static final int MAX_SAMPLES = Integer.MAX_VALUE - 8;
+
+	// buffers at least this big are kept off the java heap
+	static final long DEFAULT_OFF_HEAP_THRESHOLD = 16L * 1024 * 1024;
+	static volatile long offHeapThreshold = DEFAULT_OFF_HEAP_THRESHOLD;
+
+	final AudioFormat format;
+	final PcmCodec codec;
+	final int channels;
+	final int frameSize;
+	final long frames;
+	final long windowFrames;
+	final ByteBuffer[] windows;
+	private final AtomicInteger users = new AtomicInteger();
+	private volatile boolean released = false;
+
+	// the reads going on in the windows, shared with buffers made by
+	// WritableBuffer.reuse()
+	private final Readers readers;
+
+	// the waveform of the samples, worked out the first time it is needed
+	private volatile WaveformIndex index;
+
+	SampleBuffer(AudioFormat format, long frames, ByteBuffer[] windows) {
+		this.format = format;
+		this.codec = PcmCodec.forFormat(format);
+		this.channels = format.getChannels();
+		this.frameSize = format.getFrameSize();
+		this.frames = frames;
+		this.windowFrames = windowFrames(format);
+		this.windows = windows;
+		this.readers = new Readers(windows);
+	}
+
+	// makes a buffer over the same memory as another one
+	SampleBuffer(AudioFormat format, SampleBuffer memory) {
+		this.format = format;
+		this.codec = PcmCodec.forFormat(format);
+		this.channels = format.getChannels();
+		this.frameSize = format.getFrameSize();
+		this.frames = memory.frames;
+		this.windowFrames = windowFrames(format);
+		this.windows = memory.windows;
+		this.readers = memory.readers;
+	}
+
+	/**
+	 * returns true if the format can be held by a SampleBuffer
+	 *
+	 * @param format
+	 * @return boolean
+	 */
+	static boolean isSupported(AudioFormat format) {
+		PcmCodec codec = PcmCodec.forFormat(format);
+		return codec != null && format.getFrameSize() == format.getChannels() * codec.sampleBytes;
+	}
+
+	/**
+	 * returns the number of frames each window of a buffer holds
+	 *
+	 * @param format
+	 * @return long
+	 */
+	static long windowFrames(AudioFormat format) {
+		return WINDOW_BYTES / format.getFrameSize();
+	}
+
+	/**
+	 * returns the number of windows needed to hold a number of frames
+	 *
+	 * @param format
+	 * @param frames
+	 * @return int
+	 */
+	static int windowCount(AudioFormat format, long frames) {
+		long windowFrames = windowFrames(format);
+		return (int) ((frames + windowFrames - 1) / windowFrames);
+	}
+
+	/**
+	 * returns the number of bytes in a window
+	 *
+	 * @param format
+	 * @param frames  the frames in the whole buffer
+	 * @param window
+	 * @return int
+	 */
+	static int windowBytes(AudioFormat format, long frames, int window) {
+		long windowFrames = windowFrames(format);
+		return (int) (Math.min(windowFrames, frames - window * windowFrames) * format.getFrameSize());
+	}
+
+	/**
+	 * Makes the empty windows for a buffer of the given number of frames. The
+	 * windows are off the java heap if the buffer is at least as big as the
+	 * threshold, unless there is no more memory off the heap.
+	 *
+	 * @param format
+	 * @param frames
+	 * @return ByteBufferArray
+	 */
+	static ByteBuffer[] allocate(AudioFormat format, long frames) {
+		boolean offHeap = frames * format.getFrameSize() >= offHeapThreshold;
+		ByteBuffer[] windows = new ByteBuffer[windowCount(format, frames)];
+		for (int i = 0; i < windows.length; i++) {
+			int bytes = windowBytes(format, frames, i);
+			if (offHeap) {
+				try {
+					windows[i] = ByteBuffer.allocateDirect(bytes);
+				} catch (OutOfMemoryError e) {
+					// the memory off the heap has a limit of its own, use the heap instead
+					offHeap = false;
+				}
+			}
+			if (windows[i] == null) {
+				windows[i] = ByteBuffer.allocate(bytes);
+			}
+		}
+		return windows;
+	}
+
+	/**
+	 * Reads all of the audio from an Audio Input Stream into a buffer in
+	 * memory
+	 *
+	 * @param ais
+	 * @return SampleBuffer
+	 * @throws IOException
+	 */
+	static SampleBuffer read(AudioInputStream ais) throws IOException {
+		AudioFormat format = ais.getFormat();
+		int frameSize = format.getFrameSize();
+
+		// if the length is not known, read all the bytes first
+		if (ais.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[CHUNK_BYTES];
+			int read;
+			while ((read = ais.read(chunk)) != -1) {
+				out.write(chunk, 0, read);
+			}
+			byte[] bytes = out.toByteArray();
+			long frames = bytes.length / frameSize;
+			if (windowCount(format, frames) > 1) {
+				throw new IOException("The audio is too long to be held in memory, load it as a stream instead");
+			}
+			ByteBuffer[] windows = allocate(format, frames);
+			if (windows.length > 0) {
+				windows[0].put(bytes, 0, (int) (frames * frameSize));
+			}
+			return new SampleBuffer(format, frames, windows);
+		}
+
+		// read the bytes into the windows, one chunk at a time
+		long frames = ais.getFrameLength();
+		ByteBuffer[] windows = allocate(format, frames);
+		byte[] chunk = new byte[CHUNK_BYTES];
+		for (int i = 0; i < windows.length; i++) {
+			ByteBuffer window = windows[i];
+			int filled = 0;
+			while (filled < window.capacity()) {
+				int read = ais.read(chunk, 0, Math.min(CHUNK_BYTES, window.capacity() - filled));
+				if (read == -1) {
+					break;
+				}
+				window.put(chunk, 0, read);
+				filled += read;
+			}
+
+			// the stream ended early, so the buffer is only as long as the whole frames read
+			if (filled < window.capacity()) {
+				frames = i * windowFrames(format) + filled / frameSize;
+				windows = Arrays.copyOf(windows, i + 1);
+				break;
+			}
+		}
+		return new SampleBuffer(format, frames, windows);
+	}
+
+	/**
+	 * Decodes a number of frames into a float array, where full volume is
+	 * between -1 and 1
+	 *
+	 * @param frame
+	 * @param dst
+	 * @param offset
+	 * @param count
+	 */
+	void read(long frame, float[] dst, int offset, int count) {
+		// the memory is not freed while the read is going on
+		readers.enter();
+		try {
+			// the memory of a released buffer may already be gone
+			if (released) {
+				throw new IllegalStateException("The audio was closed, it can not be read any more");
+			}
+			while (count > 0) {
+				// read as many frames as are left in the window that holds this frame
+				int window = (int) (frame / windowFrames);
+				int index = (int) (frame - window * windowFrames);
+				int part = (int) Math.min(count, windowFrames - index);
+				codec.decode(windows[window], index * frameSize, dst, offset, part * channels);
+
+				frame += part;
+				offset += part * channels;
+				count -= part;
+			}
+		} finally {
+			readers.leave();
+		}
+	}
+
+	/**
+	 * returns true if samples can be written back over this buffer with
+	 * WritableBuffer.reuse(), which is when there is only one user (the one
+	 * asking) and the buffer is not a file that was mapped to be read only
+	 *
+	 * @return boolean
+	 */
+	boolean isWritable() {
+		if (users.get() != 1) {
+			return false;
+		}
+		for (ByteBuffer window : windows) {
+			if (window.isReadOnly()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the buffer from being read, without freeing its memory, once the
+	 * memory was taken over by a buffer made with WritableBuffer.reuse()
+	 */
+	void handOver() {
+		users.set(0);
+		released = true;
+	}
+
+	/**
+	 * returns the waveform index of the samples, working it out the first time
+	 * it is needed. If the file the samples came from is given, the index is
+	 * read from its sidecar file, or saved into it once it is worked out.
+	 *
+	 * @param file the file the samples came from, or null
+	 * @return WaveformIndex
+	 */
+	WaveformIndex index(File file) {
+		WaveformIndex result = index;
+		if (result == null) {
+			synchronized (this) {
+				if (index == null) {
+					BufferNode node = new BufferNode(this);
+					index = file == null ? WaveformIndex.build(node) : WaveformIndex.build(node, file);
+				}
+				result = index;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * returns the number of bytes the samples take up
+	 *
+	 * @return long
+	 */
+	long bytes() {
+		return frames * frameSize;
+	}
+
+	/**
+	 * Counts another user of the buffer
+	 */
+	void retain() {
+		users.incrementAndGet();
+	}
+
+	/**
+	 * Lets go of the buffer. When the last user lets go, the memory off the
+	 * heap and any mapped file are freed as soon as no reads are going on in
+	 * them, and the buffer can not be read any more.
+	 */
+	void release() {
+		if (users.decrementAndGet() == 0) {
+			released = true;
+			readers.free();
+		}
+	}
+
+	/**
+	 * Counts the reads going on in the windows of a buffer, so the windows are
+	 * only freed once the last read that started before they were let go of
+	 * has ended. A read counts itself before it checks whether the buffer was
+	 * released, and the windows are let go of before the reads are counted, so
+	 * either the read sees the buffer was released, or the windows are freed
+	 * when the read ends.
+	 *
+	 */
+	private static final class Readers {
+		private final ByteBuffer[] windows;
+		private final AtomicInteger count = new AtomicInteger();
+		private final AtomicBoolean freed = new AtomicBoolean();
+		private volatile boolean dropped = false;
+
+		Readers(ByteBuffer[] windows) {
+			this.windows = windows;
+		}
+
+		void enter() {
+			count.incrementAndGet();
+		}
+
+		void leave() {
+			if (count.decrementAndGet() == 0 && dropped) {
+				freeNow();
+			}
+		}
+
+		// lets go of the windows, freeing them now if nothing is reading them
+		void free() {
+			dropped = true;
+			if (count.get() == 0) {
+				freeNow();
+			}
+		}
+
+		private void freeNow() {
+			if (!freed.compareAndSet(false, true)) {
+				return;
+			}
+			for (ByteBuffer window : windows) {
+				if (window.isDirect()) {
+					SampleBuffer.free(window);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Frees the memory of a buffer that is off the heap, or releases a mapping,
+	 * straight away instead of waiting for the garbage collector. Some systems
+	 * (like Windows) do not let a file be replaced while it is mapped. If the
+	 * memory can not be freed this way it is left for the garbage collector.
+	 *
+	 * @param buffer
+	 */
+	static void free(ByteBuffer buffer) {
+		try {
+			// java 9 and newer
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			// java 8
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			} catch (Exception ignored) {
+				// leave it for the garbage collector
+			}
+		} catch (Exception ignored) {
+			// leave it for the garbage collector
+		}
+	}
+}
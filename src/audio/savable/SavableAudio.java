@@ -4,14 +4,18 @@ package audio.savable;
 //import java.io.*;
 //import javax.sound.sampled.*;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
@@ -19,11 +23,39 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  * a file
  *
  */
-public class SavableAudio {
+public class SavableAudio implements Closeable {
+	// the qualities that audio can be resampled with, from fastest to best
+	public static final int RESAMPLE_FAST = ResampleNode.FAST;
+	public static final int RESAMPLE_GOOD = ResampleNode.GOOD;
+	public static final int RESAMPLE_BEST = ResampleNode.BEST;
+
 	public AudioInputStream ais;
 	public AudioFormat aisFormat;
 	public int bytesPerFrame;
-	private double volume = 1;
+	private int resampleQuality = RESAMPLE_GOOD;
+
+	// when true, edits that keep every frame where it is are written straight
+	// back into the samples
+	private boolean inPlace = false;
+
+	// the edits made to the audio, ais is a stream that reads from these. An
+	// AudioReader on another thread picks up the newest edits.
+	private volatile AudioNode node;
+
+	// the samples the edits read from, this audio counts as one of their users
+	private SampleBuffer[] buffers = new SampleBuffer[0];
+
+	// the levels of the audio, kept until the edits change
+	private Loudness loudness;
+	private AudioNode loudnessNode;
+
+	// works out the edits when the audio is saved, on one thread or in parallel
+	private Renderer renderer = Renderer.SEQUENTIAL;
+
+	// the last thing that went wrong, and whether it is printed out as well
+	private String error;
+	private int errors = 0;
+	private boolean quiet = false;
 
 	/**
 	 * a Constructor, usually called in the setup() method in your sketch to
@@ -39,9 +71,39 @@ public class SavableAudio {
 		load(filePath);
 	}
 
+	public SavableAudio(String filePath, boolean stream) {
+		load(filePath, stream);
+	}
+
+	public SavableAudio(String filePath, double startTime, double endTime) {
+		load(filePath, startTime, endTime);
+	}
+
+	/**
+	 * Copies another SavableAudio. Nothing is copied straight away: the samples
+	 * and the edits are never changed, so both share them, and each edit made to
+	 * either one only changes that one. The copy has its own ais, so reading one
+	 * stream does not use up the other.
+	 * 
+	 * @param audio
+	 */
 	public SavableAudio(SavableAudio audio) {
-		ais = audio.ais;
-		loadInfo();
+		// edit graphs are never changed, so both classes can share the same one
+		renderer = audio.renderer;
+		quiet = audio.quiet;
+		resampleQuality = audio.resampleQuality;
+		inPlace = audio.inPlace;
+		loudness = audio.loudness;
+		loudnessNode = audio.loudnessNode;
+		if (audio.node != null) {
+			setNode(audio.node);
+			share(audio);
+		}
+	}
+
+	// makes a class that holds audio that was made from other audio
+	SavableAudio(AudioNode node) {
+		setNode(node);
 	}
 
 	/**
@@ -51,36 +113,242 @@ public class SavableAudio {
 	 * @param filePath
 	 */
 	public void load(String filePath) {
-		String extension = filePath.substring(filePath.lastIndexOf(".") + 1);
+		load(filePath, false);
+	}
+
+	/**
+	 * Loads the audio file, either into memory or as a stream. When streaming,
+	 * the file is mapped into memory and the audio is read straight from it each
+	 * time it is saved, so even files that are too big to fit into memory can be
+	 * edited and saved. The
+	 * file must not be deleted or changed until the audio is saved. Only PCM and
+	 * float .wav files can be streamed, other files are loaded into memory.
+	 * 
+	 * @param filePath
+	 * @param stream
+	 */
+	public void load(String filePath, boolean stream) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("load", errors);
 		try {
-			if (extension.equals("mp3")) {
-				System.out.println("Cannot load audio from mp3 file\nConvert file to wav format\n");
-				ais = null;
+			// forget any audio that was loaded before
+			ais = null;
+			node = null;
+			error = null;
+			releaseBuffers();
+
+			String extension = filePath.substring(filePath.lastIndexOf(".") + 1);
+			SampleBuffer loaded;
+			try {
+				if (extension.equals("mp3")) {
+					report("Cannot load audio from mp3 file\nConvert file to wav format\n");
+					return;
+				}
+
+				File file = new File(filePath);
+
+				// audio that was loaded before is taken from the cache, as long as the file
+				// has not changed since
+				String key = stream ? null : ClipCache.key(file);
+				SampleBuffer cached = ClipCache.get(key);
+				if (cached != null) {
+					// the cache already counted this audio as a user
+					buffers = new SampleBuffer[] { cached };
+					index(cached, file);
+					setNode(new BufferNode(cached));
+					return;
+				}
+
+				// plain .wav files are read without going through AudioSystem
+				WavFile wav = WavFile.open(file);
+				if (wav != null && stream) {
+					// map the file, the samples are only read when the audio is saved
+					SampleBuffer mapped = wav.map();
+					use(mapped);
+					index(mapped, file);
+					setNode(new BufferNode(mapped));
+					return;
+				}
+				if (wav != null) {
+					loaded = wav.readSamples();
+				} else {
+					if (stream) {
+						warn("Cannot stream audio that is not a PCM .wav file, loading it into memory instead\n");
+					}
+
+					AudioInputStream fileStream = AudioSystem.getAudioInputStream(file);
+
+					// the samples can only be decoded if they are 8, 16, 24 or 32 bit PCM or float
+					if (!SampleBuffer.isSupported(fileStream.getFormat())) {
+						report("Cannot load audio that is not 8, 16, 24 or 32 bit PCM or 32 bit float: " + fileStream.getFormat() + "\n");
+						fileStream.close();
+						return;
+					}
+
+					// decode the samples once, the edits all work on the decoded samples
+					loaded = SampleBuffer.read(fileStream);
+					fileStream.close();
+				}
+				// count this audio as a user before the cache, so the cache can not free the
+				// samples first
+				use(loaded);
+				ClipCache.put(key, loaded);
+				index(loaded, file);
+			} catch (UnsupportedAudioFileException | IOException e) {
+				loadFailed(filePath, e);
 				return;
-			} else {
-				ais = AudioSystem.getAudioInputStream(new File(filePath));
 			}
-		} catch (UnsupportedAudioFileException e) {
-			e.printStackTrace();
-			System.out.println("Something went wrong with loading the song located at: " + filePath + "\n");
-			System.out.println("make sure that the audio file is a .wav file");
-			System.out.println("the easiest way to make one is through audacity -> export\n");
-			ais = null;
-			return;
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			System.out.println(
-					"File not found: Be sure that you provided the correct file path and that the file exists\n");
-			ais = null;
-			return;
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println("an I/O exception occured when loading the audio\n");
+
+			setNode(new BufferNode(loaded));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	/**
+	 * Loads only part of an audio file, from the start time to the end time (in
+	 * seconds). For .wav files only the frames of the part are read, straight
+	 * from where they are in the file, so cutting a short part out of a long
+	 * recording takes about as long as the part, however long the recording
+	 * is. Other files are read from the beginning up to the end time. An end
+	 * time past the end of the file loads up to the end of the file.
+	 * 
+	 * @param filePath
+	 * @param startTime
+	 * @param endTime
+	 */
+	public void load(String filePath, double startTime, double endTime) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("load", errors);
+		try {
+			// forget any audio that was loaded before
 			ais = null;
-			return;
+			node = null;
+			error = null;
+			releaseBuffers();
+
+			// check for numbers that do not make sense
+			if (startTime < 0 || endTime <= startTime) {
+				report("Invalid times: start time cannot be negative and must be before the end time");
+				return;
+			}
+
+			String extension = filePath.substring(filePath.lastIndexOf(".") + 1);
+			SampleBuffer loaded;
+			long length;
+			try {
+				if (extension.equals("mp3")) {
+					report("Cannot load audio from mp3 file\nConvert file to wav format\n");
+					return;
+				}
+
+				File file = new File(filePath);
+
+				// a file that is already in the cache is sliced instead of read again
+				SampleBuffer cached = ClipCache.get(ClipCache.key(file));
+				if (cached != null) {
+					long first = (long) (startTime * cached.format.getSampleRate());
+					if (first >= cached.frames) {
+						cached.release();
+						report("Invalid start time: the audio is only " + cached.frames / cached.format.getSampleRate()
+								+ " seconds long");
+						return;
+					}
+					long last = Math.min(cached.frames, (long) (endTime * cached.format.getSampleRate()));
+					buffers = new SampleBuffer[] { cached };
+					setNode(SliceNode.of(new BufferNode(cached), first, last - first));
+					return;
+				}
+
+				// the part of a .wav file is read straight from where it is in the file
+				WavFile wav = WavFile.open(file);
+				if (wav != null) {
+					long first = (long) (startTime * wav.format.getSampleRate());
+					if (first >= wav.frames) {
+						report("Invalid start time: the audio is only " + wav.frames / wav.format.getSampleRate()
+								+ " seconds long");
+						return;
+					}
+					long last = Math.min(wav.frames, (long) (endTime * wav.format.getSampleRate()));
+					length = last - first;
+					loaded = wav.readSamples(first, length);
+				} else {
+					AudioInputStream fileStream = AudioSystem.getAudioInputStream(file);
+					AudioFormat format = fileStream.getFormat();
+
+					// the samples can only be decoded if they are 8, 16, 24 or 32 bit PCM or float
+					if (!SampleBuffer.isSupported(format)) {
+						report("Cannot load audio that is not 8, 16, 24 or 32 bit PCM or 32 bit float: " + format + "\n");
+						fileStream.close();
+						return;
+					}
+
+					// skip up to the start, then only read the frames of the part
+					long first = (long) (startTime * format.getSampleRate());
+					long skip = first * format.getFrameSize();
+					while (skip > 0) {
+						long skipped = fileStream.skip(skip);
+						if (skipped <= 0) {
+							break;
+						}
+						skip -= skipped;
+					}
+					if (skip > 0) {
+						report("Invalid start time: the audio is shorter than " + startTime + " seconds");
+						fileStream.close();
+						return;
+					}
+					long last = (long) (endTime * format.getSampleRate());
+					if (fileStream.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+						// the length is not known, so the rest of the file is read and cut afterwards
+						loaded = SampleBuffer.read(fileStream);
+					} else {
+						last = Math.min(last, fileStream.getFrameLength());
+						loaded = SampleBuffer.read(new AudioInputStream(fileStream, format, last - first));
+					}
+					length = last - first;
+					fileStream.close();
+				}
+				use(loaded);
+			} catch (UnsupportedAudioFileException | IOException e) {
+				loadFailed(filePath, e);
+				return;
+			}
+
+			setNode(SliceNode.of(new BufferNode(loaded), 0, Math.min(loaded.frames, length)));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		loadInfo();
+	// reports why a file could not be loaded
+	private void loadFailed(String filePath, Exception e) {
+		if (e instanceof UnsupportedAudioFileException) {
+			report("Something went wrong with loading the song located at: " + filePath + "\n"
+					+ "make sure that the audio file is a .wav file\n"
+					+ "the easiest way to make one is through audacity -> export\n", e);
+		} else if (e instanceof FileNotFoundException || e instanceof NoSuchFileException) {
+			report("File not found: Be sure that you provided the correct file path and that the file exists\n", e);
+		} else {
+			report("an I/O exception occured when loading the audio\n", e);
+		}
+	}
+
+	// with waveform files turned on, the waveform is read from its file (or
+	// worked out and saved into it) while the audio is loaded
+	private static void index(SampleBuffer samples, File file) {
+		if (WaveformIndex.sidecars) {
+			samples.index(file);
+		}
+	}
+
+	// loads another file the same way as this one, keeping any error it has
+	private SavableAudio open(String filePath) {
+		SavableAudio audio = new SavableAudio();
+		audio.quiet = quiet;
+		audio.load(filePath);
+		if (audio.error != null) {
+			error = audio.error;
+		}
+		return audio;
 	}
 
 	/**
@@ -91,6 +359,23 @@ public class SavableAudio {
 		return aisFormat.toString();
 	}
 
+	// the edits made to the audio, or null if no audio is loaded
+	AudioNode node() {
+		return node;
+	}
+
+	// the quality the audio is resampled at when it is mixed with a Mixer
+	int resampleQuality() {
+		return resampleQuality;
+	}
+
+	private void setNode(AudioNode newNode) {
+		// give ais a fresh stream over the new edits and reload the info
+		node = newNode;
+		ais = node.stream();
+		loadInfo();
+	}
+
 	private void loadInfo() {
 		aisFormat = ais.getFormat();
 
@@ -108,141 +393,196 @@ public class SavableAudio {
 	 * @param filePath
 	 */
 	public void save(String filePath) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Unable to save audio: audio not yet loaded or not loaded properly.\n");
-			return;
-		}
-
+		AudioMetrics.Timer timer = AudioMetrics.begin("save", errors);
 		try {
-			AudioSystem.write(ais, AudioFileFormat.Type.WAVE, new File(filePath));
-		} catch (NullPointerException e) {
-			e.printStackTrace();
-			System.out.println("No song to save, audio not loaded properly\n");
-			return;
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.out.println("an I/O exception occured when saving the audio\n");
-			return;
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Unable to save audio: audio not yet loaded or not loaded properly.\n");
+				return;
+			}
+
+			try {
+				// the audio is worked out and written one chunk at a time
+				File file = new File(filePath);
+				WavFile.write(node, file, renderer);
+
+				// the cache and the waveform file may hold the audio that was in the file before
+				ClipCache.invalidate(file);
+				WaveformIndex.sidecar(file).delete();
+			} catch (NullPointerException e) {
+				report("No song to save, audio not loaded properly\n", e);
+				return;
+			} catch (IOException e) {
+				report("an I/O exception occured when saving the audio\n", e);
+				return;
+			}
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
 	}
 
 	/**
 	 * Appends audio to another audio based from a given file path. Currently only
-	 * works with .wav files.
+	 * works with .wav files. Audio with a different sample rate is resampled to
+	 * the sample rate of this audio first.
 	 * 
 	 * @param filePath
 	 */
 	public void append(String filePath) {
-		append(new SavableAudio(filePath));
+		SavableAudio audio = open(filePath);
+		append(audio);
+		audio.close();
 	}
 
 	public void append(SavableAudio audio2) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			// if the audio is not yet loaded, load the file instead of appending
-			ais = audio2.ais;
-			loadInfo();
-			return;
-		}
-		if (audio2.ais == null) {
-			return;
-		}
+		AudioMetrics.Timer timer = AudioMetrics.begin("append", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				// if the audio is not yet loaded, load the file instead of appending
+				if (audio2.node != null) {
+					setNode(audio2.node);
+					share(audio2);
+				}
+				return;
+			}
+			if (audio2.node == null) {
+				return;
+			}
 
-		// Check and see if they are the same Endian
-		if (aisFormat.isBigEndian() != audio2.aisFormat.isBigEndian()) {
-			System.out.println(
-					"Endian mismatch: The audio files you want to append do not have the same endian. Use the swapEndian() method on one of them");
-			return;
+			// check if both audio tracks are mono or stereo
+			if (audio2.aisFormat.getChannels() != aisFormat.getChannels()) {
+				report("could not append audio tracks, make sure the audio tracks have the same channel type (ie. both mono or both stereo).\n");
+				return;
+			}
+
+			// play the second audio straight after this one, at the same sample rate
+			setNode(SegmentNode.concat(node, matchRate(audio2.node)));
+			share(audio2);
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		ais = appendAIS(ais, audio2.ais);
+	/**
+	 * Appends audio from a file so that the end of this audio fades out while
+	 * the start of the new audio fades in over it, for the overlap time (in
+	 * seconds), along the curve (Envelope.LINEAR, Envelope.EXPONENTIAL or
+	 * Envelope.EQUAL_POWER).
+	 * 
+	 * @param filePath
+	 * @param overlap
+	 * @param curve
+	 */
+	public void appendCrossfade(String filePath, double overlap, int curve) {
+		SavableAudio audio = open(filePath);
+		appendCrossfade(audio, overlap, curve);
+		audio.close();
 	}
 
-	private AudioInputStream appendAIS(AudioInputStream ais1, AudioInputStream ais2) {
-		// set buffers that will be the size of the byte arrays
-		int buffer1 = (int) ais1.getFrameLength() * bytesPerFrame;
-		int buffer2 = (int) ais2.getFrameLength() * bytesPerFrame;
-		int buffer3 = buffer1 + buffer2;
+	/**
+	 * Appends audio so that the end of this audio fades out while the start of
+	 * the other audio fades in over it, for the overlap time (in seconds),
+	 * along the curve (Envelope.LINEAR, Envelope.EXPONENTIAL or
+	 * Envelope.EQUAL_POWER, which keeps the loudness even). The result is as
+	 * long as both together minus the overlap. Only the overlap is worked out
+	 * when the audio is read, the rest of both is read straight from their
+	 * samples, so joining many clips costs as much as their overlaps.
+	 * 
+	 * @param audio2
+	 * @param overlap
+	 * @param curve
+	 */
+	public void appendCrossfade(SavableAudio audio2, double overlap, int curve) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("appendCrossfade", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				// if the audio is not yet loaded, load the audio instead of appending
+				if (audio2.node != null) {
+					setNode(audio2.node);
+					share(audio2);
+				}
+				return;
+			}
+			if (audio2.node == null) {
+				return;
+			}
 
-		// declare byte arrays
-		byte[] audioBytes1 = getBytes(ais1, buffer1);
-		byte[] audioBytes2 = getBytes(ais2, buffer2);
-		byte[] audioBytes3 = new byte[buffer3];
+			// check for numbers that do not make sense
+			if (overlap < 0) {
+				report("Invalid overlap: cannot be a negative number");
+				return;
+			}
+			if (curve != Envelope.LINEAR && curve != Envelope.EXPONENTIAL && curve != Envelope.EQUAL_POWER) {
+				report("Invalid curve: must be LINEAR, EXPONENTIAL or EQUAL_POWER");
+				return;
+			}
 
-		// write the bytes into the third array one after the other
-		for (int i = 0; i < buffer3; i++) {
-			if (i < buffer1) {
-				audioBytes3[i] = audioBytes1[i];
-			} else {
-				audioBytes3[i] = audioBytes2[i - buffer1];
+			// check if both audio tracks are mono or stereo
+			if (audio2.aisFormat.getChannels() != aisFormat.getChannels()) {
+				report("could not append audio tracks, make sure the audio tracks have the same channel type (ie. both mono or both stereo).\n");
+				return;
 			}
-		}
 
-		// return the AudioInputStream version of the byte array
-		return new AudioInputStream(new ByteArrayInputStream(audioBytes3), aisFormat, buffer3 / bytesPerFrame);
+			// the overlap can not be longer than either audio
+			AudioNode second = matchRate(audio2.node);
+			long frames = Math.min((long) (overlap * aisFormat.getFrameRate()), Math.min(node.frames, second.frames));
+			long start = node.frames - frames;
+
+			// only the overlap mixes the end of this audio fading out with the start of
+			// the other fading in, the rest of both plays as it is
+			AudioNode joined = SliceNode.of(node, 0, start);
+			if (frames > 0) {
+				int[] curves = new int[] { curve, curve };
+				AudioNode fadeOut = GainNode.curve(SliceNode.of(node, start, frames),
+						new GainCurve(new long[] { 0, frames }, new double[] { 1, 0 }, curves));
+				AudioNode fadeIn = GainNode.curve(SliceNode.of(second, 0, frames),
+						new GainCurve(new long[] { 0, frames }, new double[] { 0, 1 }, curves));
+				joined = SegmentNode.concat(joined, new MixNode(fadeOut, fadeIn));
+			}
+			setNode(SegmentNode.concat(joined, SliceNode.of(second, frames, second.frames - frames)));
+			share(audio2);
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
 	}
 
 	/**
 	 * Mixes two audio inputs together such that they both play at the same time
-	 * (like adding background music to an audio track).
+	 * (like adding background music to an audio track). Background audio with a
+	 * different sample rate is resampled to the sample rate of this audio first.
 	 * 
 	 * @param filePath
 	 */
 	public void mix(String filePath) {
-		mix(new SavableAudio(filePath));
+		SavableAudio audio = open(filePath);
+		mix(audio);
+		audio.close();
 	}
 
 	public void mix(SavableAudio bkgMusic) {
-		// check to see if any audio is loaded
-		if (ais == null || bkgMusic.ais == null) {
-			System.out.println("One of the audio classes are not yet loaded or was not loaded properly.");
-			return;
-		}
-
-		// check if both audio tracks are mono or stereo
-		if (bkgMusic.aisFormat.getChannels() != aisFormat.getChannels()) {
-			System.out.println(
-					"could not merge audio tracks, make sure the audio tracks have the same channel type (ie. both mono or both stereo).\n");
-			return;
-		}
-		
-		// Check and see if they are the same Endian
-		if (aisFormat.isBigEndian() != bkgMusic.aisFormat.isBigEndian()) {
-			System.out.println(
-					"Endian mismatch: The audio files you want to mix do not have the same endian. Use the swapEndian() method on one of them");
-			return;
-		}
-
-		// provide a warning if the sample rates do not match
-		if (bkgMusic.aisFormat.getSampleRate() != aisFormat.getSampleRate()) {
-			System.out.println(
-					"Warning: Sample rates do not match, background audio may sound slower or faster than the input audio");
-		}
-
-		// Set a buffer equal to the size of the base audio times the bytes per frame.
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
-
-		// load the audio samples into byte arrays
-		byte[] bkgAudioBytes = getBytes(bkgMusic.ais, buffer);
-		byte[] audioBytes = getBytes(ais, buffer);
+		AudioMetrics.Timer timer = AudioMetrics.begin("mix", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null || bkgMusic.node == null) {
+				report("One of the audio classes are not yet loaded or was not loaded properly.");
+				return;
+			}
 
-		// combine the bytes into one array using byte addition
-		// note: must be done two bytes at a time
-		byte[] combBytes = new byte[audioBytes.length];
-		for (int i = 0; i < audioBytes.length; i += 2) {
-			// Combine bytes from both arrays into shorts, then add those together
-			short res = (short) (combineBytes(audioBytes[i + 1], audioBytes[i])
-					+ combineBytes(bkgAudioBytes[i + 1], bkgAudioBytes[i]));
+			// check if both audio tracks are mono or stereo
+			if (bkgMusic.aisFormat.getChannels() != aisFormat.getChannels()) {
+				report("could not merge audio tracks, make sure the audio tracks have the same channel type (ie. both mono or both stereo).\n");
+				return;
+			}
 
-			// Split the short into two bytes and save into combined bytes array
-			byte[] split = splitBytes(res);
-			combBytes[i] = split[0];
-			combBytes[i + 1] = split[1];
+			// the mixed audio is as long as the base audio, the background is cut off or
+			// padded with silence to fit
+			setNode(new MixNode(node, matchRate(bkgMusic.node)));
+			share(bkgMusic);
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
-
-		// set the byte array to the audio input stream
-		ais = new AudioInputStream(new ByteArrayInputStream(combBytes), aisFormat, buffer / bytesPerFrame);
 	}
 
 	/**
@@ -251,7 +591,7 @@ public class SavableAudio {
 	 * @return double
 	 */
 	public double getLength() {
-		return ais.getFrameLength() / (double) (aisFormat.getSampleRate() * aisFormat.getChannels());
+		return node.frames / (double) (aisFormat.getSampleRate() * aisFormat.getChannels());
 	}
 
 	/**
@@ -261,48 +601,25 @@ public class SavableAudio {
 	 * @param fadeOutLength
 	 */
 	public void fade(double fadeInLength, double fadeOutLength) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot fade");
-			return;
-		}
-
-		// set a buffer for the size of the audio sample
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
-
-		// load the audio sample into a byte array
-		byte[] original = getBytes(ais, buffer);
-
-		// create empty byte array to hold the final audio
-		byte[] faded = new byte[buffer];
-
-		// calculate the fade in and fade out frames
-		int fadeInFrame = (int) (fadeInLength * aisFormat.getFrameRate() * bytesPerFrame);
-		int fadeOutFrame = original.length - (int) (fadeOutLength * aisFormat.getFrameRate() * bytesPerFrame);
-
-		// load all the bytes, two at a time, and change their volumes based on the fade
-		// in and out frames
-		for (int i = 0; i < original.length; i += 2) {
-			// Declaring a dampener that fades depending on the frame
-			double dampener = 1;
-			if (i < fadeInFrame) {
-				dampener *= mapRange(0, fadeInFrame, 0, volume, i);
-			}
-			if (i > fadeOutFrame) {
-				dampener *= mapRange(fadeOutFrame, original.length, volume, 0, i);
+		AudioMetrics.Timer timer = AudioMetrics.begin("fade", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot fade");
+				return;
 			}
 
-			// Combine two bytes to a short and multiply by the dampener
-			short res = (short) (dampener * combineBytes(original[i + 1], original[i]));
+			// calculate the number of frames that fade in and fade out
+			long fadeInFrames = (long) (fadeInLength * aisFormat.getFrameRate());
+			long fadeOutFrames = (long) (fadeOutLength * aisFormat.getFrameRate());
 
-			// Split the short into two bytes and store in new byte array
-			byte[] split = splitBytes(res);
-			faded[i] = split[0];
-			faded[i + 1] = split[1];
+			// the fades ramp each frame up from silence to the volume the audio has, and
+			// are worked out along with any other volume changes when the audio is read
+			setNode(GainNode.fade(node, fadeInFrames, fadeOutFrames));
+			applyInPlace();
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
-
-		// load the faded byte array into the Audio Input Stream
-		ais = new AudioInputStream(new ByteArrayInputStream(faded), aisFormat, buffer / bytesPerFrame);
 	}
 
 	public void fade(String type, double fadeLength) {
@@ -320,15 +637,11 @@ public class SavableAudio {
 			fade(0, fadeLength);
 			break;
 		default:
-			System.out.println("Invalid fade type: " + type);
+			report("Invalid fade type: " + type);
 			break;
 		}
 	}
 
-	private double mapRange(double a1, double a2, double b1, double b2, double s) {
-		return b1 + ((s - a1) * (b2 - b1)) / (a2 - a1);
-	}
-
 	/**
 	 * Adds pauses before and after the audio sample (in seconds)
 	 * 
@@ -336,30 +649,36 @@ public class SavableAudio {
 	 * @param backPause
 	 */
 	public void addPause(double frontPause, double backPause) {
-		// check for negative numbers
-		if (frontPause < 0 || backPause < 0) {
-			System.out.println("Invalid pause inputs: cannot be negative numbers");
-			return;
-		}
-
-		// calculate the frame length of the front and back pauses
-		int frontPauseFrames = (int) (frontPause * aisFormat.getSampleRate());
-		int backPauseFrames = (int) (backPause * aisFormat.getSampleRate());
+		AudioMetrics.Timer timer = AudioMetrics.begin("addPause", errors);
+		try {
+			// check for negative numbers
+			if (frontPause < 0 || backPause < 0) {
+				report("Invalid pause inputs: cannot be negative numbers");
+				return;
+			}
 
-		// using their frame lengths, create byte arrays that are the length of the
-		// pauses
-		byte[] frontPauseBytes = new byte[frontPauseFrames * bytesPerFrame];
-		byte[] backPauseBytes = new byte[backPauseFrames * bytesPerFrame];
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot add a pause");
+				return;
+			}
 
-		// convert the byte arrays to AudioInputStreams
-		AudioInputStream frontAIS = new AudioInputStream(new ByteArrayInputStream(frontPauseBytes), aisFormat,
-				frontPauseFrames);
-		AudioInputStream backAIS = new AudioInputStream(new ByteArrayInputStream(backPauseBytes), aisFormat,
-				backPauseFrames);
+			// calculate the frame length of the front and back pauses
+			long frontPauseFrames = (long) (frontPause * aisFormat.getSampleRate());
+			long backPauseFrames = (long) (backPause * aisFormat.getSampleRate());
 
-		// append the front, middle, and end input streams together
-		ais = appendAIS(frontAIS, ais);
-		ais = appendAIS(ais, backAIS);
+			// put silence before and after the audio
+			AudioNode paused = node;
+			if (frontPauseFrames > 0) {
+				paused = SegmentNode.concat(new SilenceNode(aisFormat, frontPauseFrames), paused);
+			}
+			if (backPauseFrames > 0) {
+				paused = SegmentNode.concat(paused, new SilenceNode(aisFormat, backPauseFrames));
+			}
+			setNode(paused);
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
 	}
 
 	public void addPause(String type, double pauseLength) {
@@ -377,7 +696,7 @@ public class SavableAudio {
 			addPause(0, pauseLength);
 			break;
 		default:
-			System.out.println("Invalid pause type: " + type);
+			report("Invalid pause type: " + type);
 			break;
 		}
 	}
@@ -389,52 +708,39 @@ public class SavableAudio {
 	 * @param backTrim
 	 */
 	public void trim(double frontTrim, double backTrim) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded: No audio to trim.");
-			return;
-		}
-
-		// check if the trim will trim more than the length of the audio sample
-		if (getLength() < frontTrim + backTrim) {
-			System.out.println(
-					"You are trying to trim more than the audio sample, shorten the length you want to trim the front or back of the audio sample");
-			System.out.println("Or delete the audio sample, which will have the same effect");
-			return;
-		}
-
-		// check for negative numbers
-		if (frontTrim < 0 || backTrim < 0) {
-			System.out.println("Invalid trim inputs: cannot be negative numbers");
-			return;
-		}
+		AudioMetrics.Timer timer = AudioMetrics.begin("trim", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to trim.");
+				return;
+			}
 
-		// load the audio sample into a byte array
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
-		byte[] original = getBytes(ais, buffer);
+			// check if the trim will trim more than the length of the audio sample
+			if (getLength() < frontTrim + backTrim) {
+				report("You are trying to trim more than the audio sample, shorten the length you want to trim the front or back of the audio sample\n"
+						+ "Or delete the audio sample, which will have the same effect");
+				return;
+			}
 
-		// create a byte array with the frame length equal to the final trimmed audio
-		// sample
-		int trimmedFrameLength = (int) (ais.getFrameLength() - (frontTrim * aisFormat.getSampleRate())
-				- (backTrim * aisFormat.getSampleRate()));
-		byte[] trimmedBytes = new byte[trimmedFrameLength * bytesPerFrame];
+			// check for negative numbers
+			if (frontTrim < 0 || backTrim < 0) {
+				report("Invalid trim inputs: cannot be negative numbers");
+				return;
+			}
 
-		// copy each byte (starting after the front byte length) into the trimmed byte
-		// array
-		int frontByteLength = (int) (frontTrim * aisFormat.getSampleRate() * bytesPerFrame);
+			// calculate the frame length of the final trimmed audio sample
+			long trimmedFrameLength = (long) (node.frames - (frontTrim * aisFormat.getSampleRate())
+					- (backTrim * aisFormat.getSampleRate()));
 
-		// front Byte Length needs to be an even number (has to do with most audio
-		// having 2 bytesPerFrame)
-		if (frontByteLength % 2 == 1) {
-			frontByteLength -= 1;
-		}
+			// calculate the frame where the trimmed audio starts
+			long frontFrame = (long) (frontTrim * aisFormat.getSampleRate());
 
-		for (int i = 0; i < trimmedBytes.length; i++) {
-			trimmedBytes[i] = original[i + frontByteLength];
+			// the trimmed audio reads straight from the original, nothing is copied
+			setNode(SliceNode.of(node, frontFrame, trimmedFrameLength));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
-
-		// set the audio sample to this trimmed byte array
-		ais = new AudioInputStream(new ByteArrayInputStream(trimmedBytes), aisFormat, trimmedFrameLength);
 	}
 
 	public void trim(String type, double trimLength) {
@@ -452,11 +758,193 @@ public class SavableAudio {
 			addPause(0, trimLength);
 			break;
 		default:
-			System.out.println("Invalid pause type: " + type);
+			report("Invalid pause type: " + type);
 			break;
 		}
 	}
 
+	/**
+	 * Makes new audio from the part of this audio between the start time and
+	 * the end time (in seconds). Nothing is copied, the new audio reads from
+	 * the same samples as this audio, which is not changed. An end time past
+	 * the end of the audio takes the part up to the end.
+	 * 
+	 * @param startTime
+	 * @param endTime
+	 * @return SavableAudio
+	 */
+	public SavableAudio extract(double startTime, double endTime) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("extract", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to extract from.");
+				return new SavableAudio();
+			}
+
+			// check for numbers that do not make sense
+			if (startTime < 0 || endTime <= startTime) {
+				report("Invalid times: start time cannot be negative and must be before the end time");
+				return new SavableAudio();
+			}
+			long first = (long) (startTime * aisFormat.getSampleRate());
+			if (first >= node.frames) {
+				report("Invalid start time: the audio is only " + node.frames / aisFormat.getSampleRate()
+						+ " seconds long");
+				return new SavableAudio();
+			}
+			long last = Math.min(node.frames, (long) (endTime * aisFormat.getSampleRate()));
+
+			// the part reads straight from the same edits, and uses the same samples
+			SavableAudio part = new SavableAudio(this);
+			part.setNode(SliceNode.of(node, first, last - first));
+			return part;
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	/**
+	 * Finds the silent parts of the audio, where every channel is quieter than
+	 * the threshold (in decibels below full volume, like -50) for at least the
+	 * minimum silence (in seconds). The audio is read once, with all the edits
+	 * on it.
+	 *
+	 * @param thresholdDb
+	 * @param minSilence
+	 * @return doubleArrayArray the start and end time (in seconds) of each silent part
+	 */
+	public double[][] findSilence(double thresholdDb, double minSilence) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("findSilence", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to find silence in.");
+				return new double[0][];
+			}
+
+			// check for negative numbers
+			if (minSilence < 0) {
+				report("Invalid minimum silence: cannot be a negative number");
+				return new double[0][];
+			}
+
+			float sampleRate = aisFormat.getSampleRate();
+			List<long[]> silences = new SilenceFinder(node, thresholdDb).silences((long) (minSilence * sampleRate));
+			double[][] times = new double[silences.size()][];
+			for (int i = 0; i < times.length; i++) {
+				long[] silence = silences.get(i);
+				times[i] = new double[] { silence[0] / (double) sampleRate, silence[1] / (double) sampleRate };
+			}
+			return times;
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	/**
+	 * Trims the silence off the front and end of the audio, where every channel
+	 * is quieter than the threshold (in decibels below full volume, like -50).
+	 * Silence shorter than the minimum silence (in seconds) is left on. Only
+	 * the silence at the front and end is read, and the trimmed audio reads
+	 * straight from the original, like trim().
+	 *
+	 * @param thresholdDb
+	 * @param minSilence
+	 */
+	public void autoTrim(double thresholdDb, double minSilence) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("autoTrim", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to trim.");
+				return;
+			}
+
+			// check for negative numbers
+			if (minSilence < 0) {
+				report("Invalid minimum silence: cannot be a negative number");
+				return;
+			}
+
+			// find the first and last frames that are not silent
+			SilenceFinder finder = new SilenceFinder(node, thresholdDb);
+			long first = finder.firstSound(0, node.frames);
+			if (first == node.frames) {
+				report("The audio is all silence, there would be nothing left after trimming it");
+				return;
+			}
+			long last = finder.lastSound(first, node.frames);
+
+			// silence that is too short stays on
+			long minFrames = (long) (minSilence * aisFormat.getSampleRate());
+			if (first < minFrames) {
+				first = 0;
+			}
+			if (node.frames - last < minFrames) {
+				last = node.frames;
+			}
+
+			setNode(SliceNode.of(node, first, last - first));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	/**
+	 * Splits the audio into the parts between silences, where every channel is
+	 * quieter than the threshold (in decibels below full volume, like -50) for
+	 * at least the minimum silence (in seconds). The silences are left out,
+	 * along with any at the front and end. The audio is read once, and the
+	 * parts read straight from the same samples as this audio, like extract().
+	 *
+	 * @param thresholdDb
+	 * @param minSilence
+	 * @return SavableAudioArray
+	 */
+	public SavableAudio[] splitOnSilence(double thresholdDb, double minSilence) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("splitOnSilence", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to split.");
+				return new SavableAudio[0];
+			}
+
+			// check for negative numbers
+			if (minSilence < 0) {
+				report("Invalid minimum silence: cannot be a negative number");
+				return new SavableAudio[0];
+			}
+
+			List<long[]> silences = new SilenceFinder(node, thresholdDb)
+					.silences((long) (minSilence * aisFormat.getSampleRate()));
+
+			// each part goes from the end of one silence to the start of the next
+			List<SavableAudio> parts = new ArrayList<SavableAudio>();
+			long start = 0;
+			for (long[] silence : silences) {
+				if (silence[0] > start) {
+					parts.add(part(start, silence[0]));
+				}
+				start = silence[1];
+			}
+			if (node.frames > start) {
+				parts.add(part(start, node.frames));
+			}
+			return parts.toArray(new SavableAudio[parts.size()]);
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	// makes new audio that reads a part of this audio, and uses the same samples
+	private SavableAudio part(long first, long last) {
+		SavableAudio part = new SavableAudio(this);
+		part.setNode(SliceNode.of(node, first, last - first));
+		return part;
+	}
+
 	/**
 	 * Sets the volume of the audio sample, with the input being a percentage with
 	 * 100% being normal.
@@ -464,38 +952,129 @@ public class SavableAudio {
 	 * @param newVolume
 	 */
 	public void setVolume(double newVolume) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot set the volume");
-			return;
+		AudioMetrics.Timer timer = AudioMetrics.begin("setVolume", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot set the volume");
+				return;
+			}
+
+			// the volume is changed along with any other volume changes when the audio is
+			// read
+			setNode(GainNode.scale(node, newVolume / 100));
+			applyInPlace();
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
+
+	/**
+	 * Changes the volume of the audio over time by an envelope, on top of any
+	 * other volume changes. An envelope can hold any number of fades, ducks
+	 * and other volume changes, and all of them are worked out in the same
+	 * single pass as the rest of the volume changes when the audio is saved.
+	 * Changing the envelope afterwards does not change the audio.
+	 * 
+	 * @param envelope
+	 */
+	public void applyEnvelope(Envelope envelope) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("applyEnvelope", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot apply the envelope");
+				return;
+			}
+			if (envelope.size() == 0) {
+				report("The envelope is empty, add a point to it first");
+				return;
+			}
+
+			setNode(GainNode.curve(node, envelope.toCurve(aisFormat.getSampleRate())));
+			applyInPlace();
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		newVolume = newVolume / 100;
+	/**
+	 * Measures how loud the audio is, with all the edits on it: the peak, the
+	 * true peak, the rms and the loudness in LUFS (see Loudness). The audio is
+	 * read once, a chunk at a time, and the result is kept until the audio is
+	 * edited again.
+	 *
+	 * @return Loudness
+	 */
+	public Loudness getLoudness() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("getLoudness", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded: No audio to measure.");
+				return null;
+			}
 
-		volume = newVolume;
+			AudioNode measured = node;
+			if (loudnessNode != measured) {
+				loudness = LoudnessMeter.measure(measured);
+				loudnessNode = measured;
+			}
+			return loudness;
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
 
-		// set a buffer for the size of the audio sample
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
+	/**
+	 * Changes the volume of the audio so that it is as loud as the target
+	 * loudness (in LUFS, like -14 or -23), as long as its true peak stays at or
+	 * below full volume. If it would go over, the audio is made as loud as it
+	 * can be without going over instead.
+	 *
+	 * @param targetLufs
+	 */
+	public void normalize(double targetLufs) {
+		normalize(targetLufs, 0);
+	}
 
-		// load the audio sample into a byte array
-		byte[] original = getBytes(ais, buffer);
+	/**
+	 * Changes the volume of the audio so that it is as loud as the target
+	 * loudness (in LUFS, like -14 or -23), as long as its true peak stays at or
+	 * below the maximum true peak (in dB below full volume, like -1). If it
+	 * would go over, the audio is made as loud as it can be without going over
+	 * instead. The audio is read once to measure it, and the volume change is
+	 * worked out along with the rest of the edits when the audio is saved.
+	 *
+	 * @param targetLufs
+	 * @param maxTruePeak
+	 */
+	public void normalize(double targetLufs, double maxTruePeak) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("normalize", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot normalize the audio");
+				return;
+			}
 
-		// create empty byte array to hold the final audio
-		byte[] changed = new byte[buffer];
+			Loudness measured = getLoudness();
+			if (measured.integrated == Double.NEGATIVE_INFINITY) {
+				report("The audio is silent, it cannot be made louder");
+				return;
+			}
 
-		// Go through each of the bytes, two at a time, and change their volume
-		for (int i = 0; i < original.length; i += 2) {
-			// Combine the two bytes into one short, multiplying by the new volume
-			short res = (short) (volume * combineBytes(original[i + 1], original[i]));
+			// the change in volume, in decibels, that does not take the true peak over the maximum
+			double decibels = Math.min(targetLufs - measured.integrated, maxTruePeak - measured.truePeak);
+			setNode(GainNode.scale(node, Math.pow(10, decibels / 20)));
+			applyInPlace();
 
-			// Split short into two bytes and put them into a new byte array.
-			byte[] split = splitBytes(res);
-			changed[i] = split[0];
-			changed[i + 1] = split[1];
+			// every level moves by the change in volume, so the audio does not have to be measured again
+			loudness = measured.plus(decibels);
+			loudnessNode = node;
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
-
-		// load the changed byte array into the audio input stream
-		ais = new AudioInputStream(new ByteArrayInputStream(changed), aisFormat, buffer / bytesPerFrame);
 	}
 
 	/**
@@ -506,213 +1085,507 @@ public class SavableAudio {
 	}
 
 	public void monoToStereo(boolean left, boolean right) {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot convert from mono to stereo");
-			return;
+		AudioMetrics.Timer timer = AudioMetrics.begin("monoToStereo", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot convert from mono to stereo");
+				return;
+			}
+
+			// check to see if the audio is mono
+			if (aisFormat.getChannels() != 1) {
+				report("Audio sample not mono, cannot convert from mono to stereo");
+				return;
+			}
+
+			// Create a new format for stereo based off the original
+			AudioFormat oldFormat = aisFormat;
+			int bits = oldFormat.getSampleSizeInBits();
+			AudioFormat newFormat = new AudioFormat(oldFormat.getEncoding(), oldFormat.getSampleRate(), bits, 2,
+					2 * bytesPerFrame, oldFormat.getFrameRate(), oldFormat.isBigEndian());
+
+			// copy the mono samples into the left and right ears as the audio is read
+			setNode(ChannelNode.toStereo(node, newFormat, left, right));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		// check to see if the audio is mono
-		if (aisFormat.getChannels() != 1) {
-			System.out.println("Audio sample not mono, cannot convert from mono to stereo");
-			return;
+	/**
+	 * Converts audio sample from stereo to mono
+	 */
+	public void stereoToMono() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("stereoToMono", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot convert from stereo to mono");
+				return;
+			}
+
+			// check to see if the audio is stereo
+			if (aisFormat.getChannels() != 2) {
+				report("Audio sample not stereo, cannot convert from stereo to mono");
+				return;
+			}
+
+			// Create a new format for mono based off the original
+			AudioFormat oldFormat = aisFormat;
+			int bits = oldFormat.getSampleSizeInBits();
+			AudioFormat newFormat = new AudioFormat(oldFormat.getEncoding(), oldFormat.getSampleRate(), bits, 1,
+					bytesPerFrame / 2, oldFormat.getFrameRate(), oldFormat.isBigEndian());
+
+			// average the left and right ears as the audio is read
+			setNode(ChannelNode.toMono(node, newFormat));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		// Set a buffer equal to the length of the audio in bytes
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
+	/**
+	 * Swaps big endian for little endian and vice versa
+	 */
+	public void swapEndian() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("swapEndian", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot swap endian");
+				return;
+			}
 
-		// Declare two byte arrays, the original and the stereo
-		byte[] original = getBytes(ais, buffer);
-		byte[] stereo = new byte[buffer * 2];
+			// Create the swapped format which is the same but with an opposite Endian
+			AudioFormat swappedFormat = new AudioFormat(aisFormat.getEncoding(), aisFormat.getSampleRate(),
+					aisFormat.getSampleSizeInBits(), aisFormat.getChannels(), aisFormat.getFrameSize(),
+					aisFormat.getFrameRate(), !aisFormat.isBigEndian());
+
+			// the samples are already decoded, so only the format needs to change. The
+			// bytes are swapped when the samples are encoded again.
+			setNode(FormatNode.of(node, swappedFormat));
+			applyInPlace();
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
+	}
 
-		// create a temporary variable to move through the stereo array
-		int j = 0;
-		for (int i = 0; i < original.length; i += 2) {
-			// Grab the bytes
-			byte byte1 = original[i];
-			byte byte2 = original[i + 1];
+	/**
+	 * Changes the sample rate of the audio without changing its speed or pitch,
+	 * using the quality set with setResampleQuality().
+	 * 
+	 * @param sampleRate
+	 */
+	public void resample(float sampleRate) {
+		resample(sampleRate, resampleQuality);
+	}
 
-			// Set the bytes of the stereo array for left ear
-			if (left) {
-				stereo[j] = byte1;
-				stereo[j + 1] = byte2;
+	/**
+	 * Changes the sample rate of the audio without changing its speed or pitch.
+	 * The quality is RESAMPLE_FAST, RESAMPLE_GOOD or RESAMPLE_BEST, better
+	 * quality keeps more of the highest sounds but takes longer to save.
+	 * 
+	 * @param sampleRate
+	 * @param quality
+	 */
+	public void resample(float sampleRate, int quality) {
+		AudioMetrics.Timer timer = AudioMetrics.begin("resample", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot resample");
+				return;
 			}
 
-			// Set the bytes of the stereo array for the right ear
-			if (right) {
-				stereo[j + 2] = byte1;
-				stereo[j + 3] = byte2;
+			// check for numbers that do not make sense
+			if (!(sampleRate >= 1)) {
+				report("Invalid sample rate: must be at least 1 Hz");
+				return;
+			}
+			if (quality < RESAMPLE_FAST || quality > RESAMPLE_BEST) {
+				report("Invalid resample quality: use RESAMPLE_FAST, RESAMPLE_GOOD or RESAMPLE_BEST");
+				return;
 			}
 
-			// Iterate the temporary variable by 4
-			j += 4;
+			// the new samples are worked out as the audio is read
+			setNode(ResampleNode.of(node, ResampleNode.withRate(aisFormat, sampleRate), quality));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		// Create a new format for stereo based off the original
-		AudioFormat oldFormat = aisFormat;
-		AudioFormat newFormat = new AudioFormat(oldFormat.getEncoding(), oldFormat.getSampleRate(), 16, 2, 4,
-				oldFormat.getFrameRate(), oldFormat.isBigEndian());
+	/**
+	 * Sets the quality used by resample(), and when audio with a different
+	 * sample rate is appended or mixed in. The default is RESAMPLE_GOOD.
+	 * 
+	 * @param quality
+	 */
+	public void setResampleQuality(int quality) {
+		if (quality < RESAMPLE_FAST || quality > RESAMPLE_BEST) {
+			report("Invalid resample quality: use RESAMPLE_FAST, RESAMPLE_GOOD or RESAMPLE_BEST");
+			return;
+		}
+		resampleQuality = quality;
+	}
 
-		// Load the stereo array into an Audio Input Stream and reload the info
-		ais = new AudioInputStream(new ByteArrayInputStream(stereo), newFormat, (buffer * 2) / bytesPerFrame);
-		loadInfo();
+	// resamples other audio to the sample rate of this audio, if it is different
+	private AudioNode matchRate(AudioNode other) {
+		if (other.format.getSampleRate() == aisFormat.getSampleRate()) {
+			return other;
+		}
+		return ResampleNode.of(other, ResampleNode.withRate(other.format, aisFormat.getSampleRate()), resampleQuality);
 	}
 
 	/**
-	 * Converts audio sample from stereo to mono
+	 * Turns parallel processing on or off. When it is on, long audio is split
+	 * into parts that are worked out at the same time on all the cores of the
+	 * computer when it is saved or turned into bytes. The audio comes out
+	 * exactly the same either way.
+	 * 
+	 * @param parallel
 	 */
-	public void stereoToMono() {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot convert from stereo to mono");
-			return;
+	public void setParallel(boolean parallel) {
+		if (parallel) {
+			renderer = new Renderer(ForkJoinPool.commonPool(), Renderer.DEFAULT_SPLIT_FRAMES);
+		} else {
+			renderer = Renderer.SEQUENTIAL;
 		}
+	}
 
-		// check to see if the audio is stereo
-		if (aisFormat.getChannels() != 2) {
-			System.out.println("Audio sample not stereo, cannot convert from stereo to mono");
+	/**
+	 * Turns on parallel processing using the given pool of threads. Audio is
+	 * split into parts until each part has fewer frames than splitFrames.
+	 * 
+	 * @param pool
+	 * @param splitFrames
+	 */
+	public void setParallel(ForkJoinPool pool, int splitFrames) {
+		renderer = new Renderer(pool, splitFrames);
+	}
+
+	/**
+	 * Turns in place editing on or off. Normally the volume, fades and endian
+	 * are only worked out when the audio is saved or read, and every save or
+	 * read works them out again. With in place editing, setVolume(), fade() and
+	 * swapEndian() work out their change straight away and write it back over
+	 * the samples it was read from, so no second copy of the audio is made and
+	 * later saves and reads only have to copy the samples. Since the samples
+	 * are stored after every edit, turning the volume up past full volume clips
+	 * the audio straight away, instead of only if it is still too loud when it
+	 * is saved.
+	 * 
+	 * Samples that other SavableAudio classes (or the clip cache) also use, and
+	 * streamed files, are copied before they are changed, so nothing else sees
+	 * the change. Edits that move frames around (like append or trim) are still
+	 * only worked out when the audio is saved. An AudioReader or Waveform must
+	 * not be in use during an in place edit, and a Waveform has to be got again
+	 * afterwards.
+	 * 
+	 * @param inPlace
+	 */
+	public void setInPlace(boolean inPlace) {
+		this.inPlace = inPlace;
+	}
+
+	// writes the edits back over the samples, if they only change each frame on its own
+	private void applyInPlace() {
+		if (!inPlace || node instanceof BufferNode) {
 			return;
 		}
 
-		// check to see if the audio is big endian
-		if (aisFormat.isBigEndian()) {
-			System.out.println(
-					"Audio sample in big endian, must be little endian. Use the swapEndian() method to change the audio sample to little endian");
+		// go down through the volume changes, fades and format changes to the samples
+		AudioNode source = node;
+		while (source instanceof GainNode || source instanceof FormatNode) {
+			source = source instanceof GainNode ? ((GainNode) source).source : ((FormatNode) source).source;
+		}
+		if (!(source instanceof BufferNode)) {
 			return;
 		}
 
-		// Set a buffer equal to the length of the audio in bytes
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
-
-		// Declare two byte arrays, the original and the stereo
-		byte[] original = getBytes(ais, buffer);
-		byte[] mono = new byte[buffer / 2];
+		// the samples are only written over if nothing else can see them, otherwise
+		// they are copied first
+		SampleBuffer store = ((BufferNode) source).buffer;
+		AudioFormat format = node.format;
+		boolean reuse = buffers.length == 1 && buffers[0] == store && store.frameSize == format.getFrameSize()
+				&& store.isWritable();
+		final WritableBuffer target = reuse ? WritableBuffer.reuse(store, format)
+				: new WritableBuffer(format, node.frames);
+
+		// each chunk is read and then written over the same frames, so the chunks can
+		// be worked out in any order
+		renderer.render(node, 0, node.frames, new Renderer.Sink() {
+			@Override
+			public void write(long frame, float[] samples, int count) {
+				target.write(frame, samples, 0, count);
+			}
+		});
 
-		// create a temporary variable to move through the mono array
-		int j = 0;
-		for (int i = 0; i < original.length; i += 4) {
-			// Combine the bytes from the original, 2 at a time, then add those together
-			short res = (short) ((combineBytes(original[i + 1], original[i])
-					+ combineBytes(original[i + 3], original[i + 2])) / 2);
+		if (reuse) {
+			buffers = new SampleBuffer[0];
+			store.handOver();
+		} else {
+			releaseBuffers();
+		}
+		use(target);
+		setNode(new BufferNode(target));
+	}
 
-			// Set the bytes of the mono array by splitting the short
-			byte[] split = splitBytes(res);
-			mono[j] = split[0];
-			mono[j + 1] = split[1];
+	/**
+	 * Keeps the audio in memory compressed, without losing anything, for audio
+	 * that is kept around but only used now and then (like a library of sound
+	 * effects). Audio is compressed block by block in the same way as FLAC, and
+	 * usually takes half as much memory or less. Compressed audio is decoded as
+	 * it is read, hundreds of times faster than it plays, so it can still be
+	 * edited, saved and read as normal. Edits made before compressing are worked
+	 * out first, so the audio comes out exactly as it would have been saved.
+	 * Only 8, 16 and 24 bit audio can be compressed.
+	 */
+	public void compress() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("compress", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot compress");
+				return;
+			}
+			if (!CompressedBuffer.isSupported(aisFormat)) {
+				report("Only 8, 16 and 24 bit audio can be compressed");
+				return;
+			}
+			if (node instanceof BufferNode && ((BufferNode) node).buffer instanceof CompressedBuffer) {
+				return;
+			}
 
-			// Iterate the temporary variable by 4
-			j += 2;
+			CompressedBuffer samples = CompressedBuffer.compress(node);
+			releaseBuffers();
+			use(samples);
+			setNode(new BufferNode(samples));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
+	}
 
-		// Create a new format for mono based off the original
-		AudioFormat oldFormat = aisFormat;
-		AudioFormat newFormat = new AudioFormat(oldFormat.getEncoding(), oldFormat.getSampleRate(), 16, 1, 2,
-				oldFormat.getFrameRate(), oldFormat.isBigEndian());
+	/**
+	 * Turns compressed audio back into plain samples, for when it is going to
+	 * be used a lot again. Audio that is not compressed is left as it is.
+	 */
+	public void decompress() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("decompress", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot decompress");
+				return;
+			}
+			boolean compressed = false;
+			for (SampleBuffer samples : buffers) {
+				compressed |= samples instanceof CompressedBuffer;
+			}
+			if (!compressed) {
+				return;
+			}
 
-		// Load the mono array into an Audio Input Stream and reload the info
-		ais = new AudioInputStream(new ByteArrayInputStream(mono), newFormat, (buffer / 2) / bytesPerFrame);
-		loadInfo();
+			// work out the audio into plain samples, along with any edits made since it
+			// was compressed
+			AudioFormat format = node.format;
+			final WritableBuffer target = new WritableBuffer(format, node.frames);
+			renderer.render(node, 0, node.frames, new Renderer.Sink() {
+				@Override
+				public void write(long frame, float[] samples, int count) {
+					target.write(frame, samples, 0, count);
+				}
+			});
+			releaseBuffers();
+			use(target);
+			setNode(new BufferNode(target));
+		} finally {
+			AudioMetrics.end(timer, node, errors);
+		}
 	}
 
 	/**
-	 * Swaps big endian for little endian and vice versa
+	 * Returns the number of bytes of memory that the samples of the audio take
+	 * up, including samples that are shared with other audio or the clip
+	 * cache. Streamed audio takes up none.
+	 *
+	 * @return long
 	 */
-	public void swapEndian() {
-		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot swap endian");
-			return;
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (SampleBuffer samples : buffers) {
+			bytes += samples.bytes();
 		}
+		return bytes;
+	}
 
-		// Set a buffer equal to the length of the audio in bytes
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
-
-		// Declare two byte arrays, the original and the swapped
-		byte[] original = getBytes(ais, buffer);
-		byte[] swapped = new byte[buffer];
-
-		// Iterate through original byte array, 2 bytes at a time
-		for (int i = 0; i < original.length; i += 2) {
-			byte byte1 = original[i];
-			byte byte2 = original[i + 1];
+	/**
+	 * Lets go of the audio. Samples that were loaded off the java heap, and
+	 * files that are streamed, are freed straight away once no other
+	 * SavableAudio uses them, instead of whenever the garbage collector gets to
+	 * them. Audio that is not closed is still freed by the garbage collector.
+	 * The audio must not be closed while it is being saved or read, but it can
+	 * be loaded again afterwards.
+	 */
+	@Override
+	public void close() {
+		ais = null;
+		node = null;
+		loudness = null;
+		loudnessNode = null;
+		releaseBuffers();
+	}
 
-			swapped[i] = byte2;
-			swapped[i + 1] = byte1;
-		}
+	/**
+	 * Sets how big audio loaded into memory has to be (in bytes) to be kept off
+	 * the java heap. Big audio kept off the heap does not make the garbage
+	 * collector pause to copy it or find room for it. The default is 16 MB, and
+	 * 0 keeps all audio off the heap.
+	 * 
+	 * @param bytes
+	 */
+	public static void setOffHeapThreshold(long bytes) {
+		SampleBuffer.offHeapThreshold = Math.max(0, bytes);
+	}
 
-		// Create the swapped format which is the same but with an opposite Endian
-		AudioFormat swappedFormat = new AudioFormat(aisFormat.getEncoding(), aisFormat.getSampleRate(),
-				aisFormat.getSampleSizeInBits(), aisFormat.getChannels(), aisFormat.getFrameSize(),
-				aisFormat.getFrameRate(), !aisFormat.isBigEndian());
+	public static long getOffHeapThreshold() {
+		return SampleBuffer.offHeapThreshold;
+	}
 
-		// Load swapped array into an AudioInputStream and reload the info
-		ais = new AudioInputStream(new ByteArrayInputStream(swapped), swappedFormat, buffer / bytesPerFrame);
-		loadInfo();
+	/**
+	 * Turns waveform files on or off. When they are on, the waveform of each
+	 * audio file is worked out while it is loaded and saved next to it, with
+	 * .peaks added to the end of the file name. The next time the file is
+	 * loaded the waveform is read from there, as long as the audio file has
+	 * not changed. Saving over a file deletes its waveform file. When they are
+	 * off (the default), the waveform is worked out the first time it is
+	 * drawn.
+	 * 
+	 * @param on
+	 */
+	public static void setWaveformFiles(boolean on) {
+		WaveformIndex.sidecars = on;
 	}
 
 	/**
-	 * Gets the audio sample as a byte array
+	 * Gets the waveform of the audio as it is now, for drawing it at any zoom
 	 * 
-	 * @return byteArray
+	 * @return Waveform
 	 */
-	public byte[] getBytes() {
+	public Waveform getWaveform() {
 		// check to see if any audio is loaded
-		if (ais == null) {
-			System.out.println("Audio not yet loaded, cannot get Bytes");
+		if (node == null) {
+			report("Audio not yet loaded, cannot get the waveform");
 			return null;
 		}
+		return new Waveform(node);
+	}
 
-		// set a buffer for the size of the audio sample
-		int buffer = (int) ais.getFrameLength() * bytesPerFrame;
+	// counts this audio as a user of the samples, if it is not already
+	private void use(SampleBuffer samples) {
+		for (SampleBuffer buffer : buffers) {
+			if (buffer == samples) {
+				return;
+			}
+		}
+		samples.retain();
+		buffers = Arrays.copyOf(buffers, buffers.length + 1);
+		buffers[buffers.length - 1] = samples;
+	}
 
-		// load the audio sample into a byte array
-		byte[] original = new byte[buffer];
-		try {
-			ais.read(original);
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.out.println("problem with reading the Audio Input Streams into byte arrays\n");
-			return null;
+	// uses the samples of other audio as well, when its edits become part of these
+	void share(SavableAudio audio) {
+		for (SampleBuffer samples : audio.buffers) {
+			use(samples);
 		}
+	}
 
-		return original;
+	private void releaseBuffers() {
+		SampleBuffer[] old = buffers;
+		buffers = new SampleBuffer[0];
+		for (SampleBuffer samples : old) {
+			samples.release();
+		}
 	}
 
-	private byte[] getBytes(AudioInputStream aisInput, int buffer) {
-		// load the audio sample into a byte array
-		byte[] original = new byte[buffer];
-		try {
-			aisInput.read(original);
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.out.println("problem with reading an Audio Input Streams into a byte array\n");
-			return null;
+	/**
+	 * Returns the last thing that went wrong with the audio, or null if nothing
+	 * has gone wrong since it was loaded. Edits that go wrong leave the audio as
+	 * it was.
+	 * 
+	 * @return String
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Stops problems from being printed out. They can still be found with
+	 * getError().
+	 * 
+	 * @param quiet
+	 */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	// keeps track of a problem and prints it out unless the audio is quiet
+	private void report(String message) {
+		error = message.trim();
+		errors++;
+		if (!quiet) {
+			System.out.println(message);
 		}
+	}
 
-		return original;
+	private void report(String message, Exception e) {
+		if (!quiet) {
+			e.printStackTrace();
+		}
+		report(message);
+		error += " (" + e + ")";
 	}
 
-	private short combineBytes(byte byte1, byte byte2) {
-		// Both bytes need to be bitwise and-ed to 0xff to remove extra leading data.
-		// The first byte needs to be shifted to the left by 8 bits, then they are added
-		// together to make a short
-		if (aisFormat.isBigEndian()) {
-			return (short) (((byte2 & 0xff) << 8) + (byte1 & 0xff));
-		} else {
-			return (short) (((byte1 & 0xff) << 8) + (byte2 & 0xff));
+	// prints out a warning, which does not stop the audio from being used
+	private void warn(String message) {
+		if (!quiet) {
+			System.out.println(message);
 		}
 	}
 
-	private byte[] splitBytes(short comb) {
-		byte[] split = new byte[2];
-		
-		if (aisFormat.isBigEndian()) {
-			split[0] = (byte) (comb >> 8);
-			split[1] = (byte) comb;
-		} else {
-			split[0] = (byte) comb;
-			split[1] = (byte) (comb >> 8);
+	/**
+	 * Gets the audio sample as a byte array
+	 * 
+	 * @return byteArray
+	 */
+	public byte[] getBytes() {
+		AudioMetrics.Timer timer = AudioMetrics.begin("getBytes", errors);
+		try {
+			// check to see if any audio is loaded
+			if (node == null) {
+				report("Audio not yet loaded, cannot get Bytes");
+				return null;
+			}
+
+			// a java array can not hold more than about 2 GB
+			if (node.frames * bytesPerFrame > SampleBuffer.MAX_SAMPLES) {
+				report("Audio is too long to fit into a byte array, save it to a file instead");
+				return null;
+			}
+
+			// work out all the edits, encoding each chunk into its place in the byte array
+			final byte[] bytes = new byte[(int) (node.frames * bytesPerFrame)];
+			final PcmCodec codec = PcmCodec.forFormat(aisFormat);
+			final int channels = aisFormat.getChannels();
+			final int frameSize = bytesPerFrame;
+			renderer.render(node, 0, node.frames, new Renderer.Sink() {
+				@Override
+				public void write(long frame, float[] samples, int count) {
+					codec.encode(samples, 0, bytes, (int) (frame * frameSize), count * channels);
+				}
+			});
+
+			return bytes;
+		} finally {
+			AudioMetrics.end(timer, node, errors);
 		}
-		return split;
 	}
 }
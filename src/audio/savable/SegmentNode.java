@@ -0,0 +1,224 @@
+package audio.savable;
+
+import java.util.Arrays;
+
+/**
+ * A list of pieces of other nodes, played one after the other. Appending,
+ * adding pauses and trimming only change the list, none of the samples are
+ * copied until the audio is read.
+ *
+ * The list is shared between every SegmentNode made from it. When a segment
+ * is added to the end of a node whose segments end at the end of the list, it
+ * is added to the shared list instead of copying the list, so appending is
+ * O(1) no matter how many pieces there are.
+ *
+ * The last piece of a node is kept in the node (the tail) instead of in the
+ * list, and only goes into the list once something is added after it. That
+ * way cutting the end off a node (like the end of a clip that fades into the
+ * next one) only makes a shorter tail, or a tail out of an earlier piece, and
+ * the list is still shared instead of copied.
+ *
+ */
+class SegmentNode extends AudioNode {
+	private final Segments segments;
+	private final int count;
+
+	// the parts of the shared list this node uses, which are never changed
+	private final AudioNode[] sources;
+	private final long[] starts;
+	private final long[] ends;
+
+	// the piece after the pieces in the list, or null, and the frame it starts at
+	private final AudioNode tail;
+	private final long tailStart;
+
+	private SegmentNode(AudioNode first, Segments segments, int count, AudioNode tail) {
+		super(first.format, (count == 0 ? 0 : segments.ends[count - 1]) + (tail == null ? 0 : tail.frames));
+		this.segments = segments;
+		this.count = count;
+		this.sources = segments.sources;
+		this.starts = segments.starts;
+		this.ends = segments.ends;
+		this.tail = tail;
+		this.tailStart = count == 0 ? 0 : ends[count - 1];
+	}
+
+	/**
+	 * Plays the second node after the first node.
+	 *
+	 * @param first
+	 * @param second
+	 * @return AudioNode
+	 */
+	static AudioNode concat(AudioNode first, AudioNode second) {
+		// if nothing was added after the first node, add onto the end of its list
+		if (first instanceof SegmentNode) {
+			SegmentNode rope = (SegmentNode) first;
+			synchronized (rope.segments) {
+				if (rope.segments.size == rope.count) {
+					if (rope.tail != null) {
+						add(rope.segments, rope.tail, 0, rope.tail.frames);
+					}
+					return join(first, rope.segments, second);
+				}
+			}
+		}
+
+		// otherwise start a new list
+		Segments segments = new Segments();
+		synchronized (segments) {
+			add(segments, first, 0, first.frames);
+			return join(first, segments, second);
+		}
+	}
+
+	// makes a node of a list followed by a node, which is the tail unless it is a list itself
+	private static AudioNode join(AudioNode first, Segments segments, AudioNode second) {
+		if (second instanceof SegmentNode || second.frames == 0) {
+			add(segments, second, 0, second.frames);
+			return new SegmentNode(first, segments, segments.size, null);
+		}
+		return new SegmentNode(first, segments, segments.size, second);
+	}
+
+	// adds the frames of a node to a list, a list or slice is added piece by piece
+	private static void add(Segments segments, AudioNode node, long start, long length) {
+		if (node instanceof SliceNode) {
+			SliceNode slice = (SliceNode) node;
+			add(segments, slice.source, slice.start + start, length);
+		} else if (node instanceof SegmentNode) {
+			SegmentNode rope = (SegmentNode) node;
+			int i = rope.indexOf(start);
+			while (length > 0 && i < rope.count) {
+				long segmentStart = i == 0 ? 0 : rope.ends[i - 1];
+				long offset = start - segmentStart;
+				long part = Math.min(length, rope.ends[i] - start);
+				segments.add(rope.sources[i], rope.starts[i] + offset, part);
+				start += part;
+				length -= part;
+				i++;
+			}
+			if (length > 0) {
+				add(segments, rope.tail, start - rope.tailStart, length);
+			}
+		} else if (length > 0) {
+			segments.add(node, start, length);
+		}
+	}
+
+	/**
+	 * returns the first frames of this node, sharing its list
+	 *
+	 * @param frames
+	 * @return AudioNode
+	 */
+	AudioNode prefix(long frames) {
+		if (frames >= tailStart) {
+			// only the tail is cut
+			AudioNode cut = frames == tailStart ? null : SliceNode.of(tail, 0, frames - tailStart);
+			return new SegmentNode(this, segments, count, cut);
+		}
+
+		// the piece the cut is in becomes the tail, after the pieces before it
+		int i = indexOf(frames - 1);
+		long segmentStart = i == 0 ? 0 : ends[i - 1];
+		return new SegmentNode(this, segments, i, SliceNode.of(sources[i], starts[i], frames - segmentStart));
+	}
+
+	/**
+	 * returns the frames of the piece that holds a range of frames, or null if
+	 * the range takes in more than one piece
+	 *
+	 * @param start
+	 * @param frames
+	 * @return AudioNode
+	 */
+	AudioNode piece(long start, long frames) {
+		if (frames <= 0) {
+			return null;
+		}
+		if (start >= tailStart) {
+			return SliceNode.of(tail, start - tailStart, frames);
+		}
+		int i = indexOf(start);
+		if (start + frames > ends[i]) {
+			return null;
+		}
+		long segmentStart = i == 0 ? 0 : ends[i - 1];
+		return SliceNode.of(sources[i], starts[i] + start - segmentStart, frames);
+	}
+
+	// returns the index of the segment that holds a frame, or the count for the tail
+	private int indexOf(long frame) {
+		int index = Arrays.binarySearch(ends, 0, count, frame);
+		// a frame that is exactly at the end of one segment is the start of the next
+		return index >= 0 ? index + 1 : -index - 1;
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		int i = indexOf(frame);
+		while (count > 0) {
+			if (i == this.count) {
+				// the rest is in the tail
+				tail.read(ctx, frame - tailStart, dst, offset, count);
+				return;
+			}
+
+			// read as many frames as the segment has left
+			long segmentStart = i == 0 ? 0 : ends[i - 1];
+			int part = (int) Math.min(count, ends[i] - frame);
+			sources[i].read(ctx, starts[i] + frame - segmentStart, dst, offset, part);
+
+			frame += part;
+			offset += part * channels;
+			count -= part;
+			i++;
+		}
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		int i = indexOf(from);
+		while (from < to) {
+			if (i == count) {
+				tail.summarize(ctx, from - tailStart, to - tailStart, tolerance, gain, into);
+				return;
+			}
+
+			// each segment adds the part of the range it holds
+			long segmentStart = i == 0 ? 0 : ends[i - 1];
+			long end = Math.min(to, ends[i]);
+			sources[i].summarize(ctx, starts[i] + from - segmentStart, starts[i] + end - segmentStart, tolerance,
+					gain, into);
+			from = end;
+			i++;
+		}
+	}
+
+	/**
+	 * The shared list of segments. Segments are only ever added to the end, so
+	 * the first entries of the arrays never change, even when the arrays are
+	 * grown.
+	 *
+	 */
+	private static final class Segments {
+		AudioNode[] sources = new AudioNode[4];
+		long[] starts = new long[4];
+		long[] ends = new long[4];
+		int size = 0;
+
+		// must be called while holding the lock on this list
+		void add(AudioNode source, long start, long length) {
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, size * 2);
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			sources[size] = source;
+			starts[size] = start;
+			ends[size] = (size == 0 ? 0 : ends[size - 1]) + length;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package audio.savable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the silent parts of a node, where every sample of every channel is
+ * quieter than a threshold. The samples are read a chunk at a time, and each
+ * chunk is checked a block of frames at a time by counting the samples in the
+ * block that are not silent, in a loop with no branches that the JIT compiler
+ * can turn into SIMD instructions. Only the blocks that have a loud sample in
+ * them are looked at one sample at a time, and only until the first (or last)
+ * loud sample.
+ *
+ * A finder must only be used by one thread at a time.
+ *
+ */
+class SilenceFinder {
+	// the number of frames that are checked together
+	static final int BLOCK_FRAMES = 256;
+
+	private final AudioNode node;
+	private final int channels;
+	private final float threshold;
+	private final int chunkFrames;
+	private final float[] samples;
+	private final RenderContext ctx = new RenderContext();
+
+	/**
+	 * Makes a finder for the silence in a node
+	 *
+	 * @param node
+	 * @param thresholdDb samples quieter than this (in decibels below full volume) are silent
+	 */
+	SilenceFinder(AudioNode node, double thresholdDb) {
+		this.node = node;
+		this.channels = node.channels;
+		this.threshold = (float) Math.pow(10, thresholdDb / 20);
+		this.chunkFrames = Renderer.chunkFrames(node);
+		this.samples = new float[chunkFrames * channels];
+	}
+
+	/**
+	 * returns the first frame from the start frame on that is not silent, or
+	 * the end frame if they are all silent
+	 *
+	 * @param from the first frame
+	 * @param to   the frame after the last frame
+	 * @return long
+	 */
+	long firstSound(long from, long to) {
+		for (long chunk = from; chunk < to; chunk += chunkFrames) {
+			int count = (int) Math.min(chunkFrames, to - chunk);
+			node.read(ctx, chunk, samples, 0, count);
+			for (int block = 0; block < count; block += BLOCK_FRAMES) {
+				int start = block * channels;
+				int end = Math.min(count, block + BLOCK_FRAMES) * channels;
+				if (countLoud(start, end) > 0) {
+					return chunk + firstLoud(start, end) / channels;
+				}
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * returns the frame after the last frame before the end frame that is not
+	 * silent, or the start frame if they are all silent. The frames are read
+	 * from the end backwards, so only the silence at the end is read.
+	 *
+	 * @param from the first frame
+	 * @param to   the frame after the last frame
+	 * @return long
+	 */
+	long lastSound(long from, long to) {
+		for (long chunkEnd = to; chunkEnd > from; chunkEnd -= chunkFrames) {
+			long chunk = Math.max(from, chunkEnd - chunkFrames);
+			int count = (int) (chunkEnd - chunk);
+			node.read(ctx, chunk, samples, 0, count);
+			for (int blockEnd = count; blockEnd > 0; blockEnd -= BLOCK_FRAMES) {
+				int start = Math.max(0, blockEnd - BLOCK_FRAMES) * channels;
+				int end = blockEnd * channels;
+				if (countLoud(start, end) > 0) {
+					return chunk + lastLoud(start, end) / channels + 1;
+				}
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Finds every silent part of the node that is at least the given number of
+	 * frames long, in a single pass over the node
+	 *
+	 * @param minFrames
+	 * @return List the first frame and the frame after the last frame of each silent part, in order
+	 */
+	List<long[]> silences(long minFrames) {
+		minFrames = Math.max(1, minFrames);
+		List<long[]> silences = new ArrayList<long[]>();
+
+		// the first frame of the silence that goes on up to the frame being looked at
+		long silentFrom = 0;
+		for (long chunk = 0; chunk < node.frames; chunk += chunkFrames) {
+			int count = (int) Math.min(chunkFrames, node.frames - chunk);
+			node.read(ctx, chunk, samples, 0, count);
+			for (int block = 0; block < count; block += BLOCK_FRAMES) {
+				int start = block * channels;
+				int end = Math.min(count, block + BLOCK_FRAMES) * channels;
+				if (countLoud(start, end) == 0) {
+					continue;
+				}
+
+				// a short silence can fit between two loud frames of the same block, so
+				// then every frame of the block is looked at
+				if (minFrames < BLOCK_FRAMES) {
+					for (int i = start; i < end; i += channels) {
+						if (countLoud(i, i + channels) > 0) {
+							long frame = chunk + i / channels;
+							if (frame - silentFrom >= minFrames) {
+								silences.add(new long[] { silentFrom, frame });
+							}
+							silentFrom = frame + 1;
+						}
+					}
+					continue;
+				}
+
+				// the silence ends at the first loud frame of the block, and the next
+				// one can only start after its last loud frame
+				long firstLoud = chunk + firstLoud(start, end) / channels;
+				if (firstLoud - silentFrom >= minFrames) {
+					silences.add(new long[] { silentFrom, firstLoud });
+				}
+				silentFrom = chunk + lastLoud(start, end) / channels + 1;
+			}
+		}
+		if (node.frames - silentFrom >= minFrames) {
+			silences.add(new long[] { silentFrom, node.frames });
+		}
+		return silences;
+	}
+
+	// the number of samples that are not silent, without any branches in the loop
+	private int countLoud(int start, int end) {
+		float threshold = this.threshold;
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			count += Math.abs(samples[i]) >= threshold ? 1 : 0;
+		}
+		return count;
+	}
+
+	// the first sample that is not silent, in a block that has one
+	private int firstLoud(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (Math.abs(samples[i]) >= threshold) {
+				return i;
+			}
+		}
+		return end - 1;
+	}
+
+	// the last sample that is not silent, in a block that has one
+	private int lastLoud(int start, int end) {
+		for (int i = end - 1; i >= start; i--) {
+			if (Math.abs(samples[i]) >= threshold) {
+				return i;
+			}
+		}
+		return start;
+	}
+}
@@ -0,0 +1,25 @@
+package audio.savable;
+
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A number of silent frames. Nothing is stored for the silence, the frames are
+ * only filled with zeros when they are read.
+ *
+ */
+class SilenceNode extends AudioNode {
+	SilenceNode(AudioFormat format, long frames) {
+		super(format, frames);
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		Arrays.fill(dst, offset, offset + count * channels, 0f);
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		into.addSilence(to - from);
+	}
+}
@@ -0,0 +1,59 @@
+package audio.savable;
+
+/**
+ * A part of another node, starting at a given frame. Used to trim audio
+ * without copying it.
+ *
+ */
+class SliceNode extends AudioNode {
+	final AudioNode source;
+	final long start;
+
+	private SliceNode(AudioNode source, long start, long frames) {
+		super(source.format, frames);
+		this.source = source;
+		this.start = start;
+	}
+
+	/**
+	 * Makes a slice of a node. Slicing a slice reads straight from the original
+	 * node instead of going through both slices, and so does a slice that is
+	 * all in one piece of a list of pieces. The start of a list of pieces is
+	 * a shorter list that shares the same pieces.
+	 *
+	 * @param source
+	 * @param start
+	 * @param frames
+	 * @return AudioNode
+	 */
+	static AudioNode of(AudioNode source, long start, long frames) {
+		if (start == 0 && frames == source.frames) {
+			return source;
+		}
+		if (source instanceof SliceNode) {
+			SliceNode slice = (SliceNode) source;
+			return new SliceNode(slice.source, slice.start + start, frames);
+		}
+		if (source instanceof SegmentNode) {
+			SegmentNode rope = (SegmentNode) source;
+			AudioNode piece = rope.piece(start, frames);
+			if (piece != null) {
+				return piece;
+			}
+			if (start == 0) {
+				return rope.prefix(frames);
+			}
+		}
+		return new SliceNode(source, start, frames);
+	}
+
+	@Override
+	void read(RenderContext ctx, long frame, float[] dst, int offset, int count) {
+		source.read(ctx, start + frame, dst, offset, count);
+	}
+
+	@Override
+	void summarize(RenderContext ctx, long from, long to, long tolerance, float gain, PeakSummary into) {
+		source.summarize(ctx, start + from, start + to, tolerance, gain, into);
+	}
+}
@@ -0,0 +1,330 @@
+package audio.savable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.AtomicMoveNotSupportedException;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Reads and writes PCM .wav files (8, 16, 24 and 32 bit integer samples and 32
+ * bit float samples) without going through AudioSystem.
+ * The header of a file is read to find where its samples are, so they can be
+ * read (or mapped) straight out of the file. All the sizes and offsets are
+ * longs, so files bigger than 2 GB work.
+ *
+ */
+class WavFile {
+	// the most bytes the 32 bit size fields in a .wav header can describe
+	private static final long MAX_CHUNK_SIZE = 0xffffffffL;
+
+	// the size of the header written by write()
+	private static final int HEADER_BYTES = 44;
+
+	// the most bytes mapped at once when writing a file
+	private static final long WRITE_WINDOW_BYTES = 64L * 1024 * 1024;
+
+	private static final int WAVE_FORMAT_PCM = 1;
+	private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xfffe;
+
+	final File file;
+	final AudioFormat format;
+	final long dataOffset;
+	final long frames;
+
+	private WavFile(File file, AudioFormat format, long dataOffset, long frames) {
+		this.file = file;
+		this.format = format;
+		this.dataOffset = dataOffset;
+		this.frames = frames;
+	}
+
+	/**
+	 * Reads the header of a .wav file. Returns null if the file is not a .wav
+	 * file holding PCM audio in a format that a SampleBuffer can hold, in which
+	 * case it has to be loaded through AudioSystem instead.
+	 *
+	 * @param file
+	 * @return WavFile
+	 * @throws IOException
+	 */
+	static WavFile open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+
+			// check the RIFF header
+			if (!readFully(channel, header, 0, 12) || header.getInt(0) != fourCC("RIFF")
+					|| header.getInt(8) != fourCC("WAVE")) {
+				return null;
+			}
+
+			// go through the chunks until the data chunk is found
+			AudioFormat format = null;
+			long position = 12;
+			while (readFully(channel, header, position, 8)) {
+				int id = header.getInt(0);
+				long size = header.getInt(4) & MAX_CHUNK_SIZE;
+				long body = position + 8;
+
+				if (id == fourCC("fmt ")) {
+					format = readFormat(channel, header, body, size);
+					if (format == null) {
+						return null;
+					}
+				} else if (id == fourCC("data")) {
+					if (format == null) {
+						return null;
+					}
+
+					// files bigger than 4 GB can not write their real size, so a size that runs
+					// past the end of the file means the data goes to the end of the file
+					if (size == MAX_CHUNK_SIZE || body + size > fileSize) {
+						size = fileSize - body;
+					}
+					return new WavFile(file, format, body, size / format.getFrameSize());
+				}
+
+				// chunks are padded to an even number of bytes
+				position = body + size + (size & 1);
+			}
+			return null;
+		}
+	}
+
+	private static AudioFormat readFormat(FileChannel channel, ByteBuffer header, long position, long size)
+			throws IOException {
+		if (size < 16 || !readFully(channel, header, position, (int) Math.min(size, 40))) {
+			return null;
+		}
+
+		int formatTag = header.getShort(0) & 0xffff;
+		int channels = header.getShort(2) & 0xffff;
+		int sampleRate = header.getInt(4);
+		int blockAlign = header.getShort(12) & 0xffff;
+		int bits = header.getShort(14) & 0xffff;
+
+		// extensible files keep the real format tag at the start of their sub format
+		if (formatTag == WAVE_FORMAT_EXTENSIBLE && size >= 40) {
+			formatTag = header.getShort(24) & 0xffff;
+		}
+		if (channels == 0 || blockAlign != channels * ((bits + 7) / 8)) {
+			return null;
+		}
+
+		// 8 bit .wav samples are unsigned, all the others are signed
+		AudioFormat.Encoding encoding;
+		if (formatTag == WAVE_FORMAT_IEEE_FLOAT) {
+			encoding = AudioFormat.Encoding.PCM_FLOAT;
+		} else if (formatTag == WAVE_FORMAT_PCM) {
+			encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+		} else {
+			return null;
+		}
+
+		AudioFormat format = new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+		return SampleBuffer.isSupported(format) ? format : null;
+	}
+
+	/**
+	 * Reads all the samples of the file into a SampleBuffer in memory, which is
+	 * off the java heap if the file is big. The bytes are copied straight out
+	 * of the file, they are only decoded when they are read.
+	 *
+	 * @return SampleBuffer
+	 * @throws IOException
+	 */
+	SampleBuffer readSamples() throws IOException {
+		return readSamples(0, frames);
+	}
+
+	/**
+	 * Reads part of the samples of the file into a SampleBuffer in memory. The
+	 * file is read from the first frame of the part, so none of the frames
+	 * before or after it are touched.
+	 *
+	 * @param first the first frame to read
+	 * @param count the number of frames to read
+	 * @return SampleBuffer
+	 * @throws IOException
+	 */
+	SampleBuffer readSamples(long first, long count) throws IOException {
+		ByteBuffer[] windows = SampleBuffer.allocate(format, count);
+		long windowFrames = SampleBuffer.windowFrames(format);
+		long start = dataOffset + first * format.getFrameSize();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (int i = 0; i < windows.length; i++) {
+				if (!readFully(channel, windows[i], start + i * windowFrames * format.getFrameSize(),
+						windows[i].capacity())) {
+					throw new EOFException("The file is shorter than its header says");
+				}
+			}
+		}
+		return new SampleBuffer(format, count, windows);
+	}
+
+	/**
+	 * Maps the samples of the file into memory. Nothing is copied onto the java
+	 * heap, the operating system pages the file in as it is read.
+	 *
+	 * @return SampleBuffer
+	 * @throws IOException
+	 */
+	SampleBuffer map() throws IOException {
+		ByteBuffer[] windows = new ByteBuffer[SampleBuffer.windowCount(format, frames)];
+		long windowFrames = SampleBuffer.windowFrames(format);
+
+		// the mappings stay valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (int i = 0; i < windows.length; i++) {
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						dataOffset + i * windowFrames * format.getFrameSize(),
+						SampleBuffer.windowBytes(format, frames, i));
+			}
+		}
+		return new SampleBuffer(format, frames, windows);
+	}
+
+	/**
+	 * Writes the audio of a node into a .wav file. The file is mapped into
+	 * memory and the audio is worked out one chunk at a time straight into the
+	 * mapping, so only one chunk of samples is ever held on the heap.
+	 *
+	 * The audio is first written into a temporary file next to the real one,
+	 * which then replaces the real file. This way a file can be saved over the
+	 * same file it is being streamed from.
+	 *
+	 * @param node
+	 * @param file
+	 * @param renderer works out the chunks, on one thread or in parallel
+	 * @throws IOException
+	 */
+	static void write(AudioNode node, File file, Renderer renderer) throws IOException {
+		// .wav files are always little endian
+		AudioFormat format = wavFormat(node.format);
+		AudioNode source = FormatNode.of(node, format);
+		final PcmCodec codec = PcmCodec.forFormat(format);
+		final int frameSize = format.getFrameSize();
+		final int channels = format.getChannels();
+
+		// each window of the mapping holds a whole number of chunks
+		int chunkFrames = Renderer.chunkFrames(source);
+		long windowFrames = WRITE_WINDOW_BYTES / frameSize / chunkFrames * chunkFrames;
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		// the prefix of a temporary file must be at least 3 characters long
+		String prefix = "." + file.getName() + "-";
+		while (prefix.length() < 3) {
+			prefix += "-";
+		}
+		File temp = File.createTempFile(prefix, ".tmp", dir);
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(header(format, node.frames)), 0);
+
+				for (long frame = 0; frame < node.frames; frame += windowFrames) {
+					long length = Math.min(windowFrames, node.frames - frame);
+					final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+							HEADER_BYTES + frame * frameSize, length * frameSize);
+
+					// work out each chunk and encode it into its place in the file
+					final long windowStart = frame;
+					try {
+						renderer.render(source, frame, length, new Renderer.Sink() {
+							@Override
+							public void write(long chunkStart, float[] samples, int count) {
+								int index = (int) ((chunkStart - windowStart) * frameSize);
+								codec.encode(samples, 0, window, index, count * channels);
+							}
+						});
+					} finally {
+						SampleBuffer.free(window);
+					}
+				}
+			}
+			move(temp, file);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Makes the 44 byte header of a .wav file
+	 *
+	 * @param format
+	 * @param frames
+	 * @return byteArray
+	 */
+	static byte[] header(AudioFormat format, long frames) {
+		long dataSize = frames * format.getFrameSize();
+		int sampleRate = (int) format.getSampleRate();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(fourCC("RIFF"));
+		header.putInt((int) Math.min(MAX_CHUNK_SIZE, dataSize + 36));
+		header.putInt(fourCC("WAVE"));
+		header.putInt(fourCC("fmt "));
+		header.putInt(16);
+		boolean isFloat = format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+		header.putShort((short) (isFloat ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM));
+		header.putShort((short) format.getChannels());
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * format.getFrameSize());
+		header.putShort((short) format.getFrameSize());
+		header.putShort((short) format.getSampleSizeInBits());
+		header.putInt(fourCC("data"));
+		header.putInt((int) Math.min(MAX_CHUNK_SIZE, dataSize));
+		return header.array();
+	}
+
+	/**
+	 * returns the format that audio is saved in as a .wav file, which is always
+	 * little endian, and unsigned for 8 bit samples
+	 *
+	 * @param format
+	 * @return AudioFormat
+	 */
+	static AudioFormat wavFormat(AudioFormat format) {
+		AudioFormat.Encoding encoding = format.getEncoding();
+		if (format.getSampleSizeInBits() == 8 && encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+			encoding = AudioFormat.Encoding.PCM_UNSIGNED;
+		}
+		return new AudioFormat(encoding, format.getSampleRate(), format.getSampleSizeInBits(), format.getChannels(),
+				format.getFrameSize(), format.getFrameRate(), false);
+	}
+
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// reads a number of bytes at a position, returns false if the file ends first
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+			throws IOException {
+		buffer.clear().limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the four characters of a chunk id as a little endian int
+	private static int fourCC(String id) {
+		return id.charAt(0) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+	}
+}
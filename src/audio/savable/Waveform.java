@@ -0,0 +1,121 @@
+package audio.savable;
+
+/**
+ * The waveform of a SavableAudio, for drawing it at any zoom. The peaks of
+ * each pixel are worked out from a few blocks of an index of the samples, so
+ * drawing a waveform takes about as long as the number of pixels, however
+ * long the audio is.
+ *
+ * The index is worked out the first time a waveform is drawn, in one pass
+ * over the samples. Edits that move, join, trim or change the volume of audio
+ * use the index of the audio they were made from, so the waveform is ready
+ * straight away after them. Fades only read the parts that fade, and other
+ * edits (like mixing or resampling) read their audio once the first time
+ * they are drawn.
+ *
+ * A waveform shows the audio as it was when getWaveform() was called, later
+ * edits need a new waveform. A waveform must only be used by one thread at a
+ * time.
+ *
+ */
+public class Waveform {
+	private final AudioNode node;
+	private final float sampleRate;
+	private final RenderContext ctx = new RenderContext();
+	private final PeakSummary summary;
+
+	Waveform(AudioNode node) {
+		this.node = node;
+		this.sampleRate = node.format.getSampleRate();
+		this.summary = new PeakSummary(node.channels);
+	}
+
+	/**
+	 * returns the number of channels
+	 *
+	 * @return int
+	 */
+	public int getChannels() {
+		return node.channels;
+	}
+
+	/**
+	 * returns the length of the audio in seconds
+	 *
+	 * @return double
+	 */
+	public double getLength() {
+		return node.frames / (double) sampleRate;
+	}
+
+	/**
+	 * Works out the peaks of the audio from the start time to the end time (in
+	 * seconds), split into the given number of pixels
+	 *
+	 * @param startTime
+	 * @param endTime
+	 * @param pixels
+	 * @return Peaks
+	 * @throws IllegalArgumentException if the times do not make sense
+	 */
+	public Peaks getPeaks(double startTime, double endTime, int pixels) {
+		Peaks peaks = new Peaks(node.channels, Math.max(0, pixels));
+		getPeaks(startTime, endTime, peaks);
+		return peaks;
+	}
+
+	/**
+	 * Works out the peaks of the audio from the start time to the end time (in
+	 * seconds) into peaks that were made before, so drawing every frame does
+	 * not make new arrays. Pixels past the end of the audio are silent.
+	 *
+	 * @param startTime
+	 * @param endTime
+	 * @param peaks
+	 * @throws IllegalArgumentException if the times do not make sense, or the
+	 *                                  peaks have a different number of
+	 *                                  channels than the audio
+	 */
+	public void getPeaks(double startTime, double endTime, Peaks peaks) {
+		// check for numbers that do not make sense
+		if (startTime < 0 || endTime < startTime) {
+			throw new IllegalArgumentException("Invalid times: start time cannot be negative or after the end time");
+		}
+		if (peaks.channels != node.channels) {
+			throw new IllegalArgumentException("Invalid peaks: they have " + peaks.channels
+					+ " channels, the audio has " + node.channels);
+		}
+
+		double from = startTime * sampleRate;
+		double framesPerPixel = (endTime - startTime) * sampleRate / peaks.pixels;
+
+		// the ends of each pixel can move by a quarter of a pixel without it showing
+		long tolerance = (long) (framesPerPixel / 4);
+
+		for (int pixel = 0; pixel < peaks.pixels; pixel++) {
+			long start = Math.min(node.frames, (long) (from + pixel * framesPerPixel));
+			long end = Math.min(node.frames, (long) (from + (pixel + 1) * framesPerPixel));
+
+			// a pixel that is narrower than a frame shows the frame it is on
+			if (end == start && start < node.frames) {
+				end = start + 1;
+			}
+
+			summary.clear();
+			if (start < end) {
+				node.summarize(ctx, start, end, tolerance, 1f, summary);
+			}
+			for (int channel = 0; channel < node.channels; channel++) {
+				if (summary.frames == 0) {
+					peaks.min[channel][pixel] = 0;
+					peaks.max[channel][pixel] = 0;
+					peaks.rms[channel][pixel] = 0;
+				} else {
+					peaks.min[channel][pixel] = summary.min[channel];
+					peaks.max[channel][pixel] = summary.max[channel];
+					peaks.rms[channel][pixel] = (float) Math.sqrt(summary.squares[channel] / summary.frames);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package audio.savable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A pyramid of the smallest sample, the biggest sample and the sum of the
+ * squares of the samples of each channel of a node. The bottom level has one
+ * block for every BLOCK_FRAMES frames, and each level above it joins FAN
+ * blocks of the level below into one, so any range of frames is covered by a
+ * few blocks of the right levels, however long the range is.
+ *
+ * The index is worked out in one pass over the node, and is never changed
+ * after it is made. The bottom level can be saved next to the audio file it
+ * came from, so the next time the file is loaded it does not have to be read
+ * all the way through again.
+ *
+ */
+class WaveformIndex {
+	// frames in a block of the bottom level
+	static final int BLOCK_FRAMES = 256;
+
+	// blocks of one level that are joined into one block of the level above
+	static final int FAN_BITS = 2;
+	static final int FAN = 1 << FAN_BITS;
+
+	// frames read at a time while the index is worked out
+	private static final int CHUNK_FRAMES = BLOCK_FRAMES * 16;
+
+	// the start of a sidecar file, "SAWI", and the version of its layout
+	private static final int MAGIC = 0x53415749;
+	private static final int VERSION = 1;
+
+	// whether indexes of loaded files are saved into sidecar files
+	static volatile boolean sidecars = false;
+
+	final int channels;
+	final long frames;
+
+	// for each level, the values of each block with the channels interleaved
+	private final float[][] mins;
+	private final float[][] maxes;
+	private final float[][] sums;
+
+	private WaveformIndex(int channels, long frames, float[] min, float[] max, float[] sum) {
+		this.channels = channels;
+		this.frames = frames;
+
+		// join the blocks of each level until there is only one left
+		int levels = 1;
+		for (long blocks = blocks(frames, 0); blocks > 1; blocks = (blocks + FAN - 1) / FAN) {
+			levels++;
+		}
+		mins = new float[levels][];
+		maxes = new float[levels][];
+		sums = new float[levels][];
+		mins[0] = min;
+		maxes[0] = max;
+		sums[0] = sum;
+		for (int level = 1; level < levels; level++) {
+			int blocks = (int) blocks(frames, level);
+			mins[level] = new float[blocks * channels];
+			maxes[level] = new float[blocks * channels];
+			sums[level] = new float[blocks * channels];
+			int below = mins[level - 1].length / channels;
+			for (int block = 0; block < blocks; block++) {
+				for (int channel = 0; channel < channels; channel++) {
+					float low = Float.POSITIVE_INFINITY;
+					float high = Float.NEGATIVE_INFINITY;
+					double squares = 0;
+					for (int part = block * FAN; part < Math.min(below, (block + 1) * FAN); part++) {
+						int i = part * channels + channel;
+						low = Math.min(low, mins[level - 1][i]);
+						high = Math.max(high, maxes[level - 1][i]);
+						squares += sums[level - 1][i];
+					}
+					int i = block * channels + channel;
+					mins[level][i] = low;
+					maxes[level][i] = high;
+					sums[level][i] = (float) squares;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Works out the index of a node by reading it once from start to end.
+	 *
+	 * @param node
+	 * @return WaveformIndex
+	 */
+	static WaveformIndex build(AudioNode node) {
+		int channels = node.channels;
+		int blocks = (int) blocks(node.frames, 0);
+		float[] min = new float[blocks * channels];
+		float[] max = new float[blocks * channels];
+		float[] sum = new float[blocks * channels];
+
+		RenderContext ctx = new RenderContext();
+		float[] samples = new float[CHUNK_FRAMES * channels];
+		for (long frame = 0; frame < node.frames; frame += CHUNK_FRAMES) {
+			int count = (int) Math.min(CHUNK_FRAMES, node.frames - frame);
+			node.read(ctx, frame, samples, 0, count);
+
+			// every chunk starts on a block, so the blocks are filled one after the other
+			int block = (int) (frame / BLOCK_FRAMES);
+			for (int start = 0; start < count; start += BLOCK_FRAMES, block++) {
+				int end = Math.min(count, start + BLOCK_FRAMES);
+				for (int channel = 0; channel < channels; channel++) {
+					float low = Float.POSITIVE_INFINITY;
+					float high = Float.NEGATIVE_INFINITY;
+					double squares = 0;
+					for (int i = start * channels + channel; i < end * channels; i += channels) {
+						float sample = samples[i];
+						low = sample < low ? sample : low;
+						high = sample > high ? sample : high;
+						squares += sample * sample;
+					}
+					int i = block * channels + channel;
+					min[i] = low;
+					max[i] = high;
+					sum[i] = (float) squares;
+				}
+			}
+		}
+		return new WaveformIndex(channels, node.frames, min, max, sum);
+	}
+
+	/**
+	 * Reads the index of an audio file from its sidecar file, if there is one
+	 * that still matches the audio file. Otherwise the index is worked out from
+	 * the node and saved into the sidecar file for next time. A sidecar file
+	 * that can not be written is just left out.
+	 *
+	 * @param node the samples of the audio file
+	 * @param file the audio file
+	 * @return WaveformIndex
+	 */
+	static WaveformIndex build(AudioNode node, File file) {
+		File sidecar = sidecar(file);
+		WaveformIndex index = read(sidecar, file, node);
+		if (index == null) {
+			index = build(node);
+			try {
+				index.write(sidecar, file);
+			} catch (IOException e) {
+				// the index is still used, it is just worked out again next time
+				sidecar.delete();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * returns the sidecar file of an audio file, which has the same name with
+	 * .peaks on the end
+	 *
+	 * @param file
+	 * @return File
+	 */
+	static File sidecar(File file) {
+		return new File(file.getPath() + ".peaks");
+	}
+
+	// reads a sidecar file, or returns null if it is missing or out of date
+	private static WaveformIndex read(File sidecar, File file, AudioNode node) {
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != file.length()
+					|| in.readLong() != file.lastModified() || in.readLong() != node.frames
+					|| in.readInt() != node.channels || in.readInt() != BLOCK_FRAMES) {
+				return null;
+			}
+			int values = (int) blocks(node.frames, 0) * node.channels;
+			float[][] level = new float[3][values];
+			for (float[] array : level) {
+				for (int i = 0; i < values; i++) {
+					array[i] = in.readFloat();
+				}
+			}
+			return new WaveformIndex(node.channels, node.frames, level[0], level[1], level[2]);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// saves the bottom level, with enough about the audio file to know if it changed
+	private void write(File sidecar, File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			out.writeLong(frames);
+			out.writeInt(channels);
+			out.writeInt(BLOCK_FRAMES);
+			for (float[] array : new float[][] { mins[0], maxes[0], sums[0] }) {
+				for (float value : array) {
+					out.writeFloat(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a range of frames into a summary, multiplied by a gain. The ends of
+	 * the range are moved to the nearest block that is no longer than the
+	 * tolerance, so they can be off by up to half of the tolerance. With a
+	 * tolerance below BLOCK_FRAMES the range is exact, and the frames at each
+	 * end that do not fill a whole block are read from the node.
+	 *
+	 * @param node      the node the index was worked out from
+	 * @param ctx
+	 * @param from      the first frame
+	 * @param to        the frame after the last frame
+	 * @param tolerance the number of frames the ends can be moved by
+	 * @param gain
+	 * @param into
+	 */
+	void summarize(AudioNode node, RenderContext ctx, long from, long to, long tolerance, float gain,
+			PeakSummary into) {
+		if (tolerance >= BLOCK_FRAMES) {
+			// the biggest blocks that fit in the tolerance
+			int level = 0;
+			while (level + 1 < mins.length && blockFrames(level + 1) <= tolerance) {
+				level++;
+			}
+			long unit = blockFrames(level);
+			long start = (from + unit / 2) / unit * unit;
+			long end = Math.min(frames, (to + unit / 2) / unit * unit);
+			if (start >= end) {
+				// the range is smaller than a block, so use the block it starts in
+				start = Math.min(from / unit * unit, (frames - 1) / unit * unit);
+				end = Math.min(frames, start + unit);
+			}
+			addBlocks(start, end, level, gain, into);
+			return;
+		}
+
+		// the whole blocks in the middle come from the index, the ends are read
+		long start = (from + BLOCK_FRAMES - 1) / BLOCK_FRAMES * BLOCK_FRAMES;
+		long end = to == frames ? to : to / BLOCK_FRAMES * BLOCK_FRAMES;
+		if (start >= end) {
+			read(node, ctx, from, to, gain, into);
+			return;
+		}
+		read(node, ctx, from, start, gain, into);
+		addBlocks(start, end, 0, gain, into);
+		read(node, ctx, end, to, gain, into);
+	}
+
+	// adds the blocks from start to end, which start on blocks of the given level
+	private void addBlocks(long start, long end, int level, float gain, PeakSummary into) {
+		long frame = start;
+		while (frame < end) {
+			// use the biggest block that starts here and does not go past the end
+			int size = level;
+			while (size + 1 < mins.length && frame % blockFrames(size + 1) == 0
+					&& Math.min(frame + blockFrames(size + 1), frames) <= end) {
+				size++;
+			}
+			long next = Math.min(frame + blockFrames(size), frames);
+			into.add(mins[size], maxes[size], sums[size], (int) (frame / blockFrames(size)), next - frame, gain);
+			frame = next;
+		}
+	}
+
+	/**
+	 * Adds a range of frames into a summary by reading them from a node.
+	 *
+	 * @param node
+	 * @param ctx
+	 * @param from
+	 * @param to
+	 * @param gain
+	 * @param into
+	 */
+	static void read(AudioNode node, RenderContext ctx, long from, long to, float gain, PeakSummary into) {
+		if (from >= to) {
+			return;
+		}
+		float[] samples = ctx.borrow(CHUNK_FRAMES * node.channels);
+		while (from < to) {
+			int count = (int) Math.min(CHUNK_FRAMES, to - from);
+			node.read(ctx, from, samples, 0, count);
+			into.add(samples, count, gain);
+			from += count;
+		}
+		ctx.release();
+	}
+
+	// the number of frames in a block of a level
+	private static long blockFrames(int level) {
+		return (long) BLOCK_FRAMES << (FAN_BITS * level);
+	}
+
+	// the number of blocks in a level
+	private static long blocks(long frames, int level) {
+		long size = blockFrames(level);
+		return (frames + size - 1) / size;
+	}
+}
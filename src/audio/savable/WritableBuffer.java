@@ -0,0 +1,64 @@
+package audio.savable;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A SampleBuffer that samples can be written into, for the edits that work
+ * out all of the audio at once (applying edits in place and decompressing).
+ * The samples are written before the buffer is used by any edit graph, and
+ * after that it is never changed, the same as any other SampleBuffer.
+ *
+ */
+final class WritableBuffer extends SampleBuffer {
+
+	/**
+	 * Makes an empty buffer of the given number of frames
+	 *
+	 * @param format
+	 * @param frames
+	 */
+	WritableBuffer(AudioFormat format, long frames) {
+		super(format, frames, allocate(format, frames));
+	}
+
+	private WritableBuffer(AudioFormat format, SampleBuffer memory) {
+		super(format, memory);
+	}
+
+	/**
+	 * Makes a buffer over the same memory as another one, in a format with the
+	 * same frame size, for writing edited samples back over the samples they
+	 * are read from. The new buffer takes over the memory, so once the samples
+	 * have been written the other buffer is let go of with handOver() instead
+	 * of release(). The other buffer has to be writable.
+	 *
+	 * @param memory
+	 * @param format
+	 * @return WritableBuffer
+	 */
+	static WritableBuffer reuse(SampleBuffer memory, AudioFormat format) {
+		return new WritableBuffer(format, memory);
+	}
+
+	/**
+	 * Encodes a number of frames from a float array into the buffer, where
+	 * full volume is between -1 and 1
+	 *
+	 * @param frame
+	 * @param src
+	 * @param offset
+	 * @param count
+	 */
+	void write(long frame, float[] src, int offset, int count) {
+		while (count > 0) {
+			int window = (int) (frame / windowFrames);
+			int index = (int) (frame - window * windowFrames);
+			int part = (int) Math.min(count, windowFrames - index);
+			codec.encode(src, offset, windows[window], index * frameSize, part * channels);
+
+			frame += part;
+			offset += part * channels;
+			count -= part;
+		}
+	}
+}